@@ -0,0 +1,18 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.content.Context;
+
+import com.facebook.stetho.Stetho;
+
+/*
+ * Developer tools, only part of debug builds. The release source set has an empty DebugTools.
+ */
+public final class DebugTools {
+
+    private DebugTools() {}
+
+    public static void init(Context context) {
+        // use chrome://inspect to inspect your SQL database
+        Stetho.initializeWithDefaults(context);
+    }
+}
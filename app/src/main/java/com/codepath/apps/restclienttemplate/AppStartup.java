@@ -0,0 +1,168 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/*
+ * Runs the app's initializers in dependency order. Only what the first screen needs runs on the
+ * main thread, inside Application.onCreate; everything else is queued on one background thread
+ * once that is done, still in dependency order. A background initializer may depend on main
+ * thread ones, not the other way around.
+ *
+ * Every initializer is timed, and so is the time to the first frame of each screen, from the
+ * start of the process for the first one and from its onCreate otherwise. Both go to the log
+ * and can be read back through getTrace and getFirstFrameMillis.
+ */
+public class AppStartup {
+    private static final String TAG = "AppStartup";
+
+    // A unit of startup work
+    public static abstract class Initializer {
+        final String name;
+        final boolean background;
+        final String[] dependencies;
+
+        protected Initializer(String name, boolean background, String... dependencies) {
+            this.name = name;
+            this.background = background;
+            this.dependencies = dependencies;
+        }
+
+        protected abstract void run();
+    }
+
+    private static final Executor BACKGROUND = Executors.newSingleThreadExecutor();
+
+    // Elapsed realtime when the process started, or when this class was loaded before Android N
+    private static final long PROCESS_START_MILLIS = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+            ? Process.getStartElapsedRealtime() : SystemClock.elapsedRealtime();
+    // Milliseconds each initializer took, in the order they finished
+    private static final Map<String, Long> TRACE = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    // Milliseconds until the first frame, by screen. Main thread only
+    private static final Map<String, Long> FIRST_FRAME_MILLIS = new HashMap<>();
+    private static boolean firstScreenDrawn;
+
+    private final Map<String, Initializer> initializers = new LinkedHashMap<>();
+
+    public AppStartup add(Initializer initializer) {
+        initializers.put(initializer.name, initializer);
+        return this;
+    }
+
+    // Runs the main thread initializers now and queues the background ones
+    public void start() {
+        List<Initializer> ordered = sort();
+        for (Initializer initializer : ordered) {
+            if (!initializer.background) {
+                runTimed(initializer);
+            }
+        }
+        for (final Initializer initializer : ordered) {
+            if (initializer.background) {
+                BACKGROUND.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runTimed(initializer);
+                    }
+                });
+            }
+        }
+    }
+
+    // Milliseconds taken by each initializer that has run so far, in the order they finished
+    public static Map<String, Long> getTrace() {
+        synchronized (TRACE) {
+            return new LinkedHashMap<>(TRACE);
+        }
+    }
+
+    // Milliseconds to the first frame of the given screen, or -1 if it has not drawn yet
+    public static long getFirstFrameMillis(Class<? extends Activity> screen) {
+        Long millis = FIRST_FRAME_MILLIS.get(screen.getSimpleName());
+        return millis == null ? -1 : millis;
+    }
+
+    // Call from the screen's onCreate, after setContentView, to record when it first draws
+    public static void trackFirstFrame(Activity activity) {
+        final String screen = activity.getClass().getSimpleName();
+        // The first screen of the process is measured from the start of the process, which is
+        // what a cold start costs the user
+        final long start = firstScreenDrawn ? SystemClock.elapsedRealtime() : PROCESS_START_MILLIS;
+        firstScreenDrawn = true;
+        final View decorView = activity.getWindow().getDecorView();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Posted to the front of the queue, so it runs right after this frame is drawn
+                handler.postAtFrontOfQueue(new Runnable() {
+                    @Override
+                    public void run() {
+                        long millis = SystemClock.elapsedRealtime() - start;
+                        FIRST_FRAME_MILLIS.put(screen, millis);
+                        Log.i(TAG, "time to first frame of " + screen + ": " + millis + "ms");
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    private static void runTimed(Initializer initializer) {
+        long start = SystemClock.elapsedRealtime();
+        initializer.run();
+        long millis = SystemClock.elapsedRealtime() - start;
+        TRACE.put(initializer.name, millis);
+        Log.i(TAG, initializer.name + " took " + millis + "ms on " + Thread.currentThread().getName());
+    }
+
+    // Depth-first topological sort, keeping the order initializers were added where it can
+    private List<Initializer> sort() {
+        List<Initializer> ordered = new ArrayList<>();
+        Map<String, Boolean> visiting = new HashMap<>();
+        for (Initializer initializer : initializers.values()) {
+            visit(initializer, ordered, visiting);
+        }
+        return ordered;
+    }
+
+    private void visit(Initializer initializer, List<Initializer> ordered, Map<String, Boolean> visiting) {
+        Boolean state = visiting.get(initializer.name);
+        if (state != null) {
+            if (state) {
+                throw new IllegalStateException("Initializers depend on each other: " + initializer.name);
+            }
+            return;
+        }
+        visiting.put(initializer.name, true);
+        for (String name : initializer.dependencies) {
+            Initializer dependency = initializers.get(name);
+            if (dependency == null) {
+                throw new IllegalStateException(initializer.name + " depends on unknown " + name);
+            }
+            if (dependency.background && !initializer.background) {
+                throw new IllegalStateException(initializer.name + " cannot wait for background " + name);
+            }
+            visit(dependency, ordered, visiting);
+        }
+        visiting.put(initializer.name, false);
+        ordered.add(initializer);
+    }
+}
@@ -0,0 +1,115 @@
+package com.codepath.apps.restclienttemplate;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/*
+ * Formats counts (likes, retweets, replies, followers...) the way Twitter shows them: exact below
+ * 10,000, then compact with one rounded decimal, e.g. 50,125 -> "50.1K", 1,250,000 -> "1.3M",
+ * and rounded to whole units from 100 of a unit, e.g. 150,600 -> "151K", 999,600 -> "1M". The
+ * decimal separator follows the locale.
+ *
+ * Labels are built digit by digit in a reusable buffer and cached, so formatting a value that
+ * has been seen before allocates nothing. Main thread only.
+ */
+public final class CompactCountFormatter {
+
+    // Counts below this are shown in full
+    private static final long COMPACT_THRESHOLD = 10000;
+    private static final long[] UNITS = {1000L, 1000000L, 1000000000L};
+    private static final char[] SUFFIXES = {'K', 'M', 'B'};
+    // Values of a unit from which the decimal is dropped, e.g. "150K" rather than "150.3K"
+    private static final int NO_DECIMAL_FROM = 100;
+
+    private static CompactCountFormatter instance;
+
+    private final Locale locale;
+    private final char decimalSeparator;
+    private final char[] buffer = new char[24];
+    // Exact labels, indexed by count
+    private final String[] exact = new String[(int) COMPACT_THRESHOLD];
+    // Compact labels, indexed by unit and value in tenths of that unit (up to 999.9)
+    private final String[][] compact = new String[UNITS.length][10000];
+
+    private CompactCountFormatter(Locale locale) {
+        this.locale = locale;
+        this.decimalSeparator = DecimalFormatSymbols.getInstance(locale).getDecimalSeparator();
+    }
+
+    // Formatter for the current default locale, recreated if the locale changed
+    public static CompactCountFormatter getInstance() {
+        Locale locale = Locale.getDefault();
+        if (instance == null || !instance.locale.equals(locale)) {
+            instance = new CompactCountFormatter(locale);
+        }
+        return instance;
+    }
+
+    public String format(long count) {
+        if (count < 0) {
+            // Counts are never negative, but do not index the caches with one
+            return "-" + format(count == Long.MIN_VALUE ? Long.MAX_VALUE : -count);
+        }
+        if (count < COMPACT_THRESHOLD) {
+            int index = (int) count;
+            if (exact[index] == null) {
+                exact[index] = build(count, 0, (char) 0);
+            }
+            return exact[index];
+        }
+
+        // Pick the largest unit that keeps the value at 1 or more, then round to tenths, or to
+        // whole units from NO_DECIMAL_FROM on. Rounding can carry into the next unit (999.6K is 1M)
+        int unit = UNITS.length - 1;
+        while (unit > 0 && count < UNITS[unit]) {
+            unit--;
+        }
+        long tenths = rounded(count, UNITS[unit] / 10);
+        if (tenths >= NO_DECIMAL_FROM * 10) {
+            // Rounded from the count itself, rounding the rounded tenths again would make
+            // 150,450 "151K"
+            tenths = rounded(count, UNITS[unit]) * 10;
+        }
+        if (tenths >= 10000 && unit < UNITS.length - 1) {
+            unit++;
+            tenths = rounded(count, UNITS[unit] / 10);
+        }
+        if (tenths >= 10000) {
+            // Beyond 999.9B, too rare to cache
+            return build(tenths / 10, 0, SUFFIXES[unit]);
+        }
+
+        int index = (int) tenths;
+        String[] labels = compact[unit];
+        if (labels[index] == null) {
+            boolean decimal = tenths % 10 != 0 && tenths / 10 < NO_DECIMAL_FROM;
+            labels[index] = decimal ? build(tenths, 1, SUFFIXES[unit]) : build(tenths / 10, 0, SUFFIXES[unit]);
+        }
+        return labels[index];
+    }
+
+    // value / divisor, rounded half up. divisor is a power of ten of at least 100
+    private static long rounded(long value, long divisor) {
+        // Written so that it cannot overflow near Long.MAX_VALUE
+        return value / divisor + (value % divisor >= divisor / 2 ? 1 : 0);
+    }
+
+    // Writes value, with the given number of decimal digits and an optional suffix, right to left
+    // into the buffer
+    private String build(long value, int decimals, char suffix) {
+        int position = buffer.length;
+        if (suffix != 0) {
+            buffer[--position] = suffix;
+        }
+        int digits = 0;
+        do {
+            if (digits == decimals && decimals > 0) {
+                buffer[--position] = decimalSeparator;
+            }
+            buffer[--position] = (char) ('0' + value % 10);
+            value /= 10;
+            digits++;
+        } while (value > 0 || digits <= decimals);
+        return new String(buffer, position, buffer.length - position);
+    }
+}
@@ -2,23 +2,12 @@ package com.codepath.apps.restclienttemplate;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import android.content.Intent;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
-import com.codepath.apps.restclienttemplate.models.Tweet;
-import com.codepath.asynchttpclient.callback.JsonHttpResponseHandler;
-
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.parceler.Parcels;
-
-import okhttp3.Headers;
-
 public class ComposeActivity extends AppCompatActivity {
 
     public static final int MAX_TWEET_LENGTH = 280;
@@ -27,8 +16,6 @@ public class ComposeActivity extends AppCompatActivity {
     Button btnTweet;
     EditText etCompose;
 
-    TwitterClient client;
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -38,9 +25,6 @@ public class ComposeActivity extends AppCompatActivity {
         btnTweet = findViewById(R.id.btnTweet);
         etCompose = findViewById(R.id.etCompose);
 
-        // Access and get reference to relevant rest client
-        client = TwitterApp.getRestClient(this);
-
         // Set on click listener for button
         btnTweet.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -57,32 +41,11 @@ public class ComposeActivity extends AppCompatActivity {
                     Toast.makeText(ComposeActivity.this, "Sorry, your tweet is too long", Toast.LENGTH_LONG).show();
                     return;
                 }
-                // Make API request to publish user's tweet when they click compose button
-                client.publishTweet(tweetContent, new JsonHttpResponseHandler() {
-                    @Override
-                    public void onSuccess(int statusCode, Headers headers, JSON json) {
-                        Log.i(TAG, "onSuccess to publish tweet");
-                        try {
-                            Tweet tweet = Tweet.fromJson(json.jsonObject);
-                            Log.i(TAG, "Published tweet says: " + tweet.body);
-                            // Create intent to carry data as returned result back to parent
-                            // activity (timeline)
-                            Intent intent = new Intent();
-                            intent.putExtra("tweet", Parcels.wrap(tweet));
-                            // Set the result code and set the bundle data for response back to parent
-                            setResult(RESULT_OK, intent);
-                            // Closes activity, pass data to parent
-                            finish();
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                    }
-
-                    @Override
-                    public void onFailure(int statusCode, Headers headers, String response, Throwable throwable) {
-                        Log.e(TAG, "onFailure to publish tweet", throwable);
-                    }
-                });
+                // Hand the tweet to the outbox, which publishes it as soon as it can. The
+                // timeline shows it right away, marked as sending until Twitter has it
+                ((TwitterApp) getApplicationContext()).getOutbox().publish(tweetContent);
+                setResult(RESULT_OK);
+                finish();
             }
         });
     }
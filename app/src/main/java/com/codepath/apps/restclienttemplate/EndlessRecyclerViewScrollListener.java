@@ -1,14 +1,33 @@
 package com.codepath.apps.restclienttemplate;
 
+import android.os.SystemClock;
+
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.StaggeredGridLayoutManager;
 
+/*
+ * Loads more data before the user reaches the end of the list. The threshold adapts to how the
+ * list is scrolled: the time left until the bottom, from the scroll velocity and the on-screen
+ * row density, is compared with a moving average of how long a page took to arrive, and the next
+ * page is requested early enough to land in time. While the list is idle only the minimum
+ * threshold applies.
+ */
 public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnScrollListener {
     // The minimum amount of items to have below your current scroll position
     // before loading more.
     private int visibleThreshold = 5;
+    // Threshold actually in use, the minimum raised to cover the expected page latency
+    private int adaptiveThreshold = visibleThreshold;
+    // Never prefetch further ahead than this many items, e.g. about two pages
+    private int maxThreshold = 50;
+    // Headroom on the latency estimate, so pages land a little before they are needed
+    private static final float LATENCY_SAFETY_FACTOR = 1.5f;
+    // Weight of the newest sample in the moving averages
+    private static final float SMOOTHING = 0.3f;
+    // Page latency assumed until one has been observed
+    private static final long DEFAULT_LATENCY_MILLIS = 1500;
     // The current offset index of data you have loaded
     private int currentPage = 0;
     // The total number of items in the dataset after the last load
@@ -18,6 +37,18 @@ public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnS
     // Sets the starting page index
     private int startingPageIndex = 0;
 
+    // Scroll speed in px per ms, smoothed, and the time of the last scroll event
+    private float velocity;
+    private long lastScrollMillis;
+    // Moving average of how long a page took from onLoadMore to its items showing up
+    private float averageLatencyMillis = DEFAULT_LATENCY_MILLIS;
+    private long loadStartMillis;
+    // Whether the user reached the end of the list while the current page was loading
+    private boolean stalled;
+    // Pages that arrived before the user reached the end, and pages the user had to wait for
+    private int hits;
+    private int misses;
+
     RecyclerView.LayoutManager mLayoutManager;
 
     public EndlessRecyclerViewScrollListener(LinearLayoutManager layoutManager) {
@@ -27,11 +58,20 @@ public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnS
     public EndlessRecyclerViewScrollListener(GridLayoutManager layoutManager) {
         this.mLayoutManager = layoutManager;
         visibleThreshold = visibleThreshold * layoutManager.getSpanCount();
+        maxThreshold = maxThreshold * layoutManager.getSpanCount();
+        adaptiveThreshold = visibleThreshold;
     }
 
     public EndlessRecyclerViewScrollListener(StaggeredGridLayoutManager layoutManager) {
         this.mLayoutManager = layoutManager;
         visibleThreshold = visibleThreshold * layoutManager.getSpanCount();
+        maxThreshold = maxThreshold * layoutManager.getSpanCount();
+        adaptiveThreshold = visibleThreshold;
+    }
+
+    // Lets the threshold grow up to the given number of items, e.g. two pages
+    public void setMaxThreshold(int maxThreshold) {
+        this.maxThreshold = Math.max(maxThreshold, visibleThreshold);
     }
 
     public int getLastVisibleItem(int[] lastVisibleItemPositions) {
@@ -52,6 +92,7 @@ public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnS
     // but first we check if we are waiting for the previous load to finish.
     @Override
     public void onScrolled(RecyclerView view, int dx, int dy) {
+        trackVelocity(dy);
         int lastVisibleItemPosition = 0;
         int totalItemCount = mLayoutManager.getItemCount();
 
@@ -80,24 +121,109 @@ public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnS
         if (loading && (totalItemCount > previousTotalItemCount)) {
             loading = false;
             previousTotalItemCount = totalItemCount;
+            recordLoad();
+        } else if (loading && totalItemCount > 0 && lastVisibleItemPosition >= totalItemCount - 1) {
+            // The user is looking at the end of the list and waiting for the page
+            stalled = true;
         }
 
         // If it isn’t currently loading, we check to see if we have breached
-        // the visibleThreshold and need to reload more data.
+        // the threshold and need to reload more data.
         // If we do need to reload some more data, we execute onLoadMore to fetch the data.
         // threshold should reflect how many total columns there are too
-        if (!loading && (lastVisibleItemPosition + visibleThreshold) > totalItemCount) {
+        adaptiveThreshold = computeThreshold(view);
+        if (!loading && (lastVisibleItemPosition + adaptiveThreshold) > totalItemCount) {
             currentPage++;
+            loadStartMillis = SystemClock.elapsedRealtime();
+            stalled = false;
             onLoadMore(currentPage, totalItemCount, view);
             loading = true;
         }
     }
 
+    @Override
+    public void onScrollStateChanged(RecyclerView view, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            // Back off while the user is not scrolling
+            velocity = 0;
+            adaptiveThreshold = visibleThreshold;
+        }
+    }
+
+    // Call this when a load requested through onLoadMore failed, so a later scroll can retry it
+    public void onLoadFailed() {
+        if (loading) {
+            loading = false;
+            currentPage--;
+            loadStartMillis = 0;
+        }
+    }
+
+    private void trackVelocity(int dy) {
+        long now = SystemClock.elapsedRealtime();
+        long elapsed = now - lastScrollMillis;
+        lastScrollMillis = now;
+        if (elapsed <= 0 || elapsed > 1000) {
+            // First event of a new gesture, not enough to measure with
+            return;
+        }
+        // Only scrolling towards the end brings the next page closer
+        float sample = Math.max(0, dy) / (float) elapsed;
+        velocity += SMOOTHING * (sample - velocity);
+    }
+
+    // Items that will scroll past while a page is fetched at the current velocity, converted
+    // from pixels with the density of the items on screen
+    private int computeThreshold(RecyclerView view) {
+        int childCount = mLayoutManager.getChildCount();
+        int height = view.getHeight();
+        if (velocity <= 0 || childCount == 0 || height == 0) {
+            return visibleThreshold;
+        }
+        float itemsPerPixel = childCount / (float) height;
+        int needed = (int) Math.ceil(velocity * averageLatencyMillis * LATENCY_SAFETY_FACTOR * itemsPerPixel);
+        return Math.max(visibleThreshold, Math.min(needed, maxThreshold));
+    }
+
+    private void recordLoad() {
+        if (loadStartMillis == 0) {
+            return;
+        }
+        long latency = SystemClock.elapsedRealtime() - loadStartMillis;
+        averageLatencyMillis += SMOOTHING * (latency - averageLatencyMillis);
+        loadStartMillis = 0;
+        if (stalled) {
+            misses++;
+        } else {
+            hits++;
+        }
+    }
+
+    // Threshold used by the last scroll event, in items
+    public int getVisibleThreshold() {
+        return adaptiveThreshold;
+    }
+
+    public long getAverageLatencyMillis() {
+        return (long) averageLatencyMillis;
+    }
+
+    // Pages that arrived before the user reached the end of the list
+    public int getHits() {
+        return hits;
+    }
+
+    // Pages the user reached the end of the list before
+    public int getMisses() {
+        return misses;
+    }
+
     // Call this method whenever performing new searches
     public void resetState() {
         this.currentPage = this.startingPageIndex;
         this.previousTotalItemCount = 0;
         this.loading = true;
+        this.loadStartMillis = 0;
     }
 
     // Defines the process for actually loading more data based on page
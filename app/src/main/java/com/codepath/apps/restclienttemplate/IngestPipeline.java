@@ -0,0 +1,289 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.codepath.apps.restclienttemplate.models.Tweet;
+import com.codepath.apps.restclienttemplate.models.TweetDao;
+import com.codepath.apps.restclienttemplate.models.TweetWithUser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Headers;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/*
+ * Staged ingest pipeline for everything the TwitterClient brings back:
+ *
+ *     network bytes (OkHttp thread) -> parse (parse pool) -> persist (writer thread) -> main thread
+ *
+ * Persisting is write-behind (see TweetPersister): parsed pages are queued for the writer
+ * thread and handed to the main thread without waiting for the transaction, while every read
+ * scheduled through runOnWriter flushes the queue first and so always sees them.
+ *
+ * Only the parse stage is bounded: when its queue is full the OkHttp thread handing over the
+ * response parses it itself, which throttles the network instead of growing memory. The writer
+ * queue is unbounded, so database work is never run by whoever submits it, which may be the
+ * main thread. Work is grouped into a Scope that the owning activity cancels when it goes away,
+ * which cancels its calls and drops any result that has not been handed to the UI yet.
+ */
+public class IngestPipeline {
+    private static final String TAG = "IngestPipeline";
+
+    private static final int PARSE_QUEUE_CAPACITY = 8;
+
+    private final MyDatabase database;
+    private final TweetDao tweetDao;
+    private final TweetPersister persister;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor parseExecutor;
+    private final ThreadPoolExecutor persistExecutor;
+
+    // Receives tweets read back from the local cache, on the main thread
+    public interface Listener {
+        void onTweets(List<Tweet> tweets);
+    }
+
+    // Unit of database work run on the writer thread, ordered with every pending write
+    public interface DatabaseTask<T> {
+        T run(TweetDao tweetDao);
+    }
+
+    // Receives the result of a DatabaseTask on the main thread
+    public interface Result<T> {
+        void onResult(T result);
+    }
+
+    public IngestPipeline(MyDatabase database) {
+        this.database = database;
+        this.tweetDao = database.tweetDao();
+        this.parseExecutor = new ThreadPoolExecutor(1, 2, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(PARSE_QUEUE_CAPACITY),
+                new BackgroundThreadFactory("ingest-parse"), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.persistExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new BackgroundThreadFactory("ingest-persist"));
+        this.persister = new TweetPersister(database, persistExecutor);
+    }
+
+    public TweetPersister getPersister() {
+        return persister;
+    }
+
+    // Compacts the cache on the writer thread after initialDelayMillis, then every intervalMillis.
+    // Queued pages are flushed first so the policy applies to everything written so far
+    public void scheduleCompaction(final MyDatabase.RetentionPolicy policy, long initialDelayMillis,
+                                   final long intervalMillis) {
+        final Runnable compaction = new Runnable() {
+            @Override
+            public void run() {
+                persister.flush();
+                database.compact(policy);
+            }
+        };
+        mainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                persistExecutor.execute(compaction);
+                mainHandler.postDelayed(this, intervalMillis);
+            }
+        }, initialDelayMillis);
+    }
+
+    public Scope newScope() {
+        return new Scope();
+    }
+
+    // Group of requests tied to the lifecycle of one caller, usually an activity
+    public class Scope {
+        private volatile boolean cancelled;
+        private final Set<Call> calls = Collections.newSetFromMap(new ConcurrentHashMap<Call, Boolean>());
+        // Run when the scope is cancelled, e.g. to detach from shared requests. Main thread only
+        private final Set<Runnable> cancelListeners = new LinkedHashSet<>();
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // Cancels every in-flight call and stops any pending result from reaching the UI. A call
+        // is only known here once its response arrives, so one still waiting for headers keeps
+        // using the network until then; its response is closed unread
+        public void cancel() {
+            cancelled = true;
+            for (Call call : calls) {
+                call.cancel();
+            }
+            calls.clear();
+            List<Runnable> listeners = new ArrayList<>(cancelListeners);
+            cancelListeners.clear();
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+
+        void addCancelListener(Runnable listener) {
+            cancelListeners.add(listener);
+        }
+
+        void removeCancelListener(Runnable listener) {
+            cancelListeners.remove(listener);
+        }
+
+        // Reads the most recent cached tweets on the writer thread, so the read is ordered after
+        // any pending writes, and hands them to the listener on the main thread
+        public void loadRecent(int limit, Listener listener) {
+            loadBefore(Long.MAX_VALUE, Long.MAX_VALUE, limit, listener);
+        }
+
+        // Same as loadRecent, for the page of cached tweets that sorts after the given tweet
+        public void loadBefore(final long createdAtMillis, final long id, final int limit, final Listener listener) {
+            runOnWriter(new DatabaseTask<List<Tweet>>() {
+                @Override
+                public List<Tweet> run(TweetDao tweetDao) {
+                    List<TweetWithUser> tweetWithUsers = tweetDao.itemsBefore(createdAtMillis, id, limit);
+                    return TweetWithUser.getTweetList(tweetWithUsers);
+                }
+            }, new Result<List<Tweet>>() {
+                @Override
+                public void onResult(List<Tweet> tweets) {
+                    listener.onTweets(tweets);
+                }
+            });
+        }
+
+        // Runs the task on the writer thread and hands its result to the main thread
+        public <T> void runOnWriter(final DatabaseTask<T> task, final Result<T> result) {
+            persistExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled) {
+                        return;
+                    }
+                    // Reads must see every page queued before them
+                    persister.flush();
+                    final T value = task.run(tweetDao);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!cancelled) {
+                                result.onResult(value);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+
+        void ingest(final Call call, final Response response, final boolean persist, final TweetStreamHandler handler) {
+            calls.add(call);
+            if (cancelled) {
+                calls.remove(call);
+                call.cancel();
+                response.close();
+                return;
+            }
+            parseExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    parse(call, response, persist, handler);
+                }
+            });
+        }
+
+        void fail(final Call call, final Throwable throwable, final TweetStreamHandler handler) {
+            calls.remove(call);
+            deliverFailure(0, null, null, throwable, handler);
+        }
+
+        private void parse(Call call, Response response, boolean persist, TweetStreamHandler handler) {
+            final int statusCode = response.code();
+            final Headers headers = response.headers();
+            try (ResponseBody body = response.body()) {
+                if (cancelled) {
+                    return;
+                }
+                if (!response.isSuccessful() || body == null) {
+                    String errorResponse = body == null ? null : body.string();
+                    deliverFailure(statusCode, headers, errorResponse, new IOException("Unexpected code " + statusCode), handler);
+                    return;
+                }
+                List<Tweet> tweets = TweetStreamHandler.parse(body);
+                if (persist) {
+                    persist(statusCode, headers, tweets, handler);
+                } else {
+                    deliverSuccess(statusCode, headers, tweets, handler);
+                }
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                deliverFailure(statusCode, headers, null, e, handler);
+            } finally {
+                calls.remove(call);
+            }
+        }
+
+        // Pages are written behind the UI: the write is queued on the persister, which the writer
+        // thread flushes before serving any later read, so results can be handed over right away.
+        // Fetched pages are kept even if the scope is cancelled, they are still good cache
+        private void persist(int statusCode, Headers headers, List<Tweet> tweets, TweetStreamHandler handler) {
+            Log.i(TAG, "Queueing " + tweets.size() + " tweets for the database");
+            persister.enqueue(tweets);
+            deliverSuccess(statusCode, headers, tweets, handler);
+        }
+
+        private void deliverSuccess(final int statusCode, final Headers headers, final List<Tweet> tweets, final TweetStreamHandler handler) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) {
+                        handler.onSuccess(statusCode, headers, tweets);
+                    }
+                }
+            });
+        }
+
+        private void deliverFailure(final int statusCode, final Headers headers, final String response,
+                                    final Throwable throwable, final TweetStreamHandler handler) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) {
+                        handler.onFailure(statusCode, headers, response, throwable);
+                    }
+                }
+            });
+        }
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+        private final String name;
+        private int count;
+
+        BackgroundThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public synchronized Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, name + "-" + count++);
+        }
+    }
+}
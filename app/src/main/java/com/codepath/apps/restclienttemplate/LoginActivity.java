@@ -19,6 +19,8 @@ public class LoginActivity extends OAuthLoginActionBarActivity<TwitterClient> {
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_login);
+		// Cold start metric, the login screen is the launcher
+		AppStartup.trackFirstFrame(this);
 
 		final SampleModel sampleModel = new SampleModel();
 		sampleModel.setName("CodePath");
@@ -46,6 +48,8 @@ public class LoginActivity extends OAuthLoginActionBarActivity<TwitterClient> {
 	@Override
 	public void onLoginSuccess() {
 		Log.i("LoginActivity", "login success");
+		// Sends that failed while logged out can go through now
+		((TwitterApp) getApplicationContext()).getOutbox().retryNow();
 		Intent i = new Intent(this, TimelineActivity.class);
 		startActivity(i);
 	}
@@ -1,20 +1,261 @@
 package com.codepath.apps.restclienttemplate;
 
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
 
+import com.codepath.apps.restclienttemplate.models.OutboxDao;
+import com.codepath.apps.restclienttemplate.models.PendingMutation;
 import com.codepath.apps.restclienttemplate.models.SampleModel;
 import com.codepath.apps.restclienttemplate.models.SampleModelDao;
+import com.codepath.apps.restclienttemplate.models.TimelineGap;
 import com.codepath.apps.restclienttemplate.models.Tweet;
 import com.codepath.apps.restclienttemplate.models.TweetDao;
+import com.codepath.apps.restclienttemplate.models.TweetFts;
 import com.codepath.apps.restclienttemplate.models.User;
 
-@Database(entities={SampleModel.class, Tweet.class, User.class}, version=4)
+@Database(entities={SampleModel.class, Tweet.class, User.class, TimelineGap.class, TweetFts.class,
+        PendingMutation.class}, version=11)
 public abstract class MyDatabase extends RoomDatabase {
     public abstract SampleModelDao sampleModelDao();
 
     public abstract TweetDao tweetDao();
 
+    public abstract OutboxDao outboxDao();
+
     // Database name to be used
     public static final String NAME = "MyDataBase";
+
+    private static final String TAG = "MyDatabase";
+
+    // Limits the tweet cache is compacted down to. Tweets are evicted oldest first until every
+    // limit holds; users and gaps left without tweets go with them
+    public static class RetentionPolicy {
+        public static final RetentionPolicy DEFAULT = new RetentionPolicy(2000, DateUtils.WEEK_IN_MILLIS,
+                10 * 1024 * 1024, 300);
+
+        public final int maxTweets;
+        public final long maxAgeMillis;
+        public final long maxBytes;
+        // SampleModel rows kept, matching what SampleModelDao.recentItems can return
+        public final int maxSampleModels;
+
+        public RetentionPolicy(int maxTweets, long maxAgeMillis, long maxBytes, int maxSampleModels) {
+            this.maxTweets = maxTweets;
+            this.maxAgeMillis = maxAgeMillis;
+            this.maxBytes = maxBytes;
+            this.maxSampleModels = maxSampleModels;
+        }
+    }
+
+    // Free pages, as a share of the file, above which a compaction also runs VACUUM
+    private static final float VACUUM_FREE_PAGE_RATIO = 0.25f;
+
+    private volatile long cacheSizeBytes = -1;
+    private volatile long lastCompactionMillis = -1;
+    private volatile long lastCompactionAt;
+
+    // Applies the retention policy. Blocks, so run it on a background thread; VACUUM cannot run
+    // inside a transaction, so this must not be called from one either
+    public void compact(final RetentionPolicy policy) {
+        long start = SystemClock.elapsedRealtime();
+        final long sizeBefore = measureSizeBytes();
+        final int[] deleted = new int[1];
+        runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                TweetDao tweetDao = tweetDao();
+                deleted[0] += tweetDao.deleteOlderThan(System.currentTimeMillis() - policy.maxAgeMillis);
+                int maxTweets = policy.maxTweets;
+                // Turn the byte budget into a row budget using the current average row size
+                int count = tweetDao.countTweets();
+                if (count > 0 && sizeBefore > policy.maxBytes) {
+                    maxTweets = Math.min(maxTweets, (int) (count * policy.maxBytes / sizeBefore));
+                }
+                deleted[0] += tweetDao.trimToNewest(maxTweets);
+                deleted[0] += tweetDao.deleteOrphanUsers();
+                tweetDao.deleteUnreachableGaps();
+                sampleModelDao().trimToNewest(policy.maxSampleModels);
+            }
+        });
+
+        SupportSQLiteDatabase database = getOpenHelper().getWritableDatabase();
+        // Fold the write-ahead log back into the main file and truncate it
+        query(database, "PRAGMA wal_checkpoint(TRUNCATE)");
+        long pages = query(database, "PRAGMA page_count");
+        long freePages = query(database, "PRAGMA freelist_count");
+        if (pages > 0 && freePages > pages * VACUUM_FREE_PAGE_RATIO) {
+            database.execSQL("VACUUM");
+        }
+
+        cacheSizeBytes = measureSizeBytes();
+        lastCompactionMillis = SystemClock.elapsedRealtime() - start;
+        lastCompactionAt = System.currentTimeMillis();
+        Log.i(TAG, "Compaction removed " + deleted[0] + " rows in " + lastCompactionMillis + "ms, cache is "
+                + cacheSizeBytes + " bytes");
+    }
+
+    // Size of the database file as of the last compaction, -1 before the first one
+    public long getCacheSizeBytes() {
+        return cacheSizeBytes;
+    }
+
+    // Duration of the last compaction, -1 before the first one
+    public long getLastCompactionMillis() {
+        return lastCompactionMillis;
+    }
+
+    // Wall clock time of the last compaction, 0 before the first one
+    public long getLastCompactionAt() {
+        return lastCompactionAt;
+    }
+
+    private long measureSizeBytes() {
+        SupportSQLiteDatabase database = getOpenHelper().getWritableDatabase();
+        return query(database, "PRAGMA page_count") * query(database, "PRAGMA page_size");
+    }
+
+    private static long query(SupportSQLiteDatabase database, String sql) {
+        try (Cursor cursor = database.query(sql)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    // Adds the Tweet and User tables
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `User` (`id` INTEGER NOT NULL, `name` TEXT, " +
+                    "`screenName` TEXT, `publicImageUrl` TEXT, PRIMARY KEY(`id`))");
+            database.execSQL("CREATE TABLE IF NOT EXISTS `Tweet` (`id` INTEGER, `body` TEXT, `createdAt` TEXT, " +
+                    "`userId` INTEGER NOT NULL, `mediaUrl` TEXT, `liked` INTEGER NOT NULL, PRIMARY KEY(`id`), " +
+                    "FOREIGN KEY(`userId`) REFERENCES `User`(`id`) ON UPDATE NO ACTION ON DELETE NO ACTION )");
+        }
+    };
+
+    // Version 3 did not change the schema
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+        }
+    };
+
+    // Adds the like count
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `Tweet` ADD COLUMN `likeCount` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // Adds the parsed createdAtMillis column, backfills it from the raw createdAt strings and
+    // indexes it together with the userId foreign key
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `Tweet` ADD COLUMN `createdAtMillis` INTEGER NOT NULL DEFAULT 0");
+            SupportSQLiteStatement update = database.compileStatement(
+                    "UPDATE `Tweet` SET `createdAtMillis` = ? WHERE `id` = ?");
+            try (Cursor cursor = database.query("SELECT `id`, `createdAt` FROM `Tweet`")) {
+                while (cursor.moveToNext()) {
+                    update.bindLong(1, Tweet.parseCreatedAt(cursor.getString(1)));
+                    update.bindLong(2, cursor.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            }
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Tweet_createdAtMillis` ON `Tweet` (`createdAtMillis`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Tweet_userId` ON `Tweet` (`userId`)");
+        }
+    };
+
+    // Adds the table of timeline gaps left by incremental syncs
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `TimelineGap` (`sinceId` INTEGER NOT NULL, " +
+                    "`maxId` INTEGER NOT NULL, PRIMARY KEY(`sinceId`))");
+        }
+    };
+
+    // Adds the full-text index over tweets, its sync triggers, and indexes the cached tweets
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `TweetFts` USING FTS4(`body` TEXT, `name` TEXT, `screenName` TEXT)");
+            createFtsTriggers(database);
+            database.execSQL("INSERT INTO `TweetFts` (rowid, body, name, screenName) " +
+                    "SELECT Tweet.id, Tweet.body, User.name, User.screenName FROM Tweet INNER JOIN User ON Tweet.userId = User.id");
+        }
+    };
+
+    // Adds the outbox of likes, unlikes and tweets waiting to be sent
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `PendingMutation` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                    "`type` INTEGER NOT NULL, `tweetId` INTEGER NOT NULL, `body` TEXT, " +
+                    "`createdAtMillis` INTEGER NOT NULL, `attempts` INTEGER NOT NULL)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_PendingMutation_tweetId` ON `PendingMutation` (`tweetId`)");
+        }
+    };
+
+    // Adds the variant sizes of attached photos
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `Tweet` ADD COLUMN `mediaSizes` TEXT");
+        }
+    };
+
+    // Adds the links, mentions and hashtags extracted from tweet bodies
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `Tweet` ADD COLUMN `entities` TEXT");
+        }
+    };
+
+    // Marks new tweets the server refused, kept for the user to retry
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `PendingMutation` ADD COLUMN `failed` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // Every migration, in order, so upgrades carry existing rows forward instead of wiping them
+    static final Migration[] MIGRATIONS = {MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5,
+            MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9,
+            MIGRATION_9_10, MIGRATION_10_11};
+
+    // Room creates the TweetFts table itself on a fresh install, but not the triggers feeding it
+    static final Callback CALLBACK = new Callback() {
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase database) {
+            createFtsTriggers(database);
+        }
+    };
+
+    // Keeps TweetFts in step with Tweet and User whichever path writes them. FTS tables have no
+    // unique constraint to upsert on, so a changed tweet's row is deleted and inserted again
+    static void createFtsTriggers(SupportSQLiteDatabase database) {
+        String indexTweet = "DELETE FROM TweetFts WHERE rowid = NEW.id; " +
+                "INSERT INTO TweetFts (rowid, body, name, screenName) " +
+                "SELECT NEW.id, NEW.body, User.name, User.screenName FROM User WHERE User.id = NEW.userId; ";
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS tweet_fts_insert AFTER INSERT ON Tweet BEGIN " + indexTweet + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS tweet_fts_update AFTER UPDATE OF body, userId ON Tweet BEGIN " + indexTweet + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS tweet_fts_delete AFTER DELETE ON Tweet BEGIN " +
+                "DELETE FROM TweetFts WHERE rowid = OLD.id; END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS user_fts_update AFTER UPDATE OF name, screenName ON User BEGIN " +
+                "UPDATE TweetFts SET name = NEW.name, screenName = NEW.screenName " +
+                "WHERE rowid IN (SELECT id FROM Tweet WHERE userId = NEW.id); END");
+    }
 }
@@ -0,0 +1,449 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.codepath.apps.restclienttemplate.models.OutboxDao;
+import com.codepath.apps.restclienttemplate.models.PendingMutation;
+import com.codepath.apps.restclienttemplate.models.Tweet;
+import com.codepath.apps.restclienttemplate.models.TweetDao;
+import com.codepath.apps.restclienttemplate.models.TweetWithUser;
+import com.codepath.apps.restclienttemplate.models.User;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import okhttp3.Headers;
+
+/*
+ * Persistent outbox for likes, unlikes and new tweets. A change is applied to the local model
+ * right away (optimistically) and stored as a PendingMutation; the outbox then sends pending
+ * mutations one at a time, oldest first, so the server sees them in the order they were made.
+ *
+ *   - a like followed by an unlike of the same tweet (or the reverse) that has not been sent
+ *     yet cancels out and nothing is sent
+ *   - a failed send is retried with exponential backoff; later mutations wait behind it. That
+ *     includes auth failures, which go through once the user has logged in again
+ *   - a mutation the server refuses for what it is (the tweet is gone, the tweet is a duplicate)
+ *     is dropped, and a refused like or unlike is rolled back locally
+ *   - a new tweet shows in the timeline right away as a local tweet, replaced by the server's
+ *     copy once published; if refused, it stays there marked as failed until the user retries
+ *   - the outbox drains whenever the network comes back
+ *
+ * All public methods must be called on the main thread, and listeners are notified there.
+ */
+public class Outbox {
+    private static final String TAG = "Outbox";
+
+    private static final long BASE_BACKOFF_MILLIS = 2000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    // Twitter error codes of requests that would be refused the same way if sent again
+    private static final int ERROR_ALREADY_FAVORITED = 139;
+    private static final int ERROR_NO_STATUS = 144;
+    private static final int ERROR_DUPLICATE_STATUS = 187;
+
+    // Notified with the server's copy of a tweet once a mutation went through, and with the local
+    // copy of a new tweet while it waits
+    public interface Listener {
+        void onTweetUpdated(Tweet tweet);
+
+        // A new tweet not published yet, to show in place of any earlier copy with the same id.
+        // Its sendState tells whether it is still being sent or was refused
+        void onTweetPending(Tweet localTweet);
+
+        // The server's copy of a new tweet, replacing the local tweet with the given id
+        void onTweetPublished(long localId, Tweet tweet);
+    }
+
+    private final Context context;
+    // Created on the first send rather than during app startup
+    private TwitterClient client;
+    private final OutboxDao outboxDao;
+    private final IngestPipeline.Scope ingestScope;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Shown as the author of local tweets: the user's account once a tweet of theirs came back,
+    // a placeholder until then
+    private User localAuthor;
+
+    private boolean draining;
+    private boolean retryScheduled;
+    // Id of the mutation currently being sent, which can no longer be collapsed
+    private volatile long inFlightId = -1;
+
+    // Metrics
+    private volatile int queueDepth;
+    private long lastDrainLatencyMillis = -1;
+    private long totalDrainLatencyMillis;
+    private long sentCount;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            retryScheduled = false;
+            drain();
+        }
+    };
+
+    public Outbox(Context context, MyDatabase database, IngestPipeline pipeline) {
+        this.context = context.getApplicationContext();
+        this.outboxDao = database.outboxDao();
+        // Sends outlive any single screen, so they get a scope that is never cancelled
+        this.ingestScope = pipeline.newScope();
+        this.localAuthor = new User();
+        localAuthor.name = context.getString(R.string.local_author_name);
+        localAuthor.screenName = context.getString(R.string.local_author_screen_name);
+        watchConnectivity(context);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Likes or unlikes the tweet. Returns the optimistic copy of the tweet to display right away
+    public Tweet toggleLike(Tweet tweet) {
+        final Tweet optimistic = tweet.withLiked(!tweet.liked);
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<Integer>() {
+            @Override
+            public Integer run(TweetDao tweetDao) {
+                tweetDao.applyLike(optimistic.id, optimistic.liked, optimistic.liked ? 1 : -1);
+                PendingMutation pending = outboxDao.pendingLikeToggle(optimistic.id, inFlightId);
+                if (pending != null && (pending.type == PendingMutation.TYPE_LIKE) != optimistic.liked) {
+                    // The opposite change was never sent, so the server already has this state
+                    outboxDao.delete(pending);
+                } else {
+                    outboxDao.insert(PendingMutation.like(optimistic.id, optimistic.liked));
+                }
+                return outboxDao.count();
+            }
+        }, new IngestPipeline.Result<Integer>() {
+            @Override
+            public void onResult(Integer count) {
+                queueDepth = count;
+                drain();
+            }
+        });
+        return optimistic;
+    }
+
+    // Queues a new tweet. Listeners get its local copy through onTweetPending right away, and the
+    // server's through onTweetPublished once the server has it
+    public void publish(final String body) {
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<PendingMutation>() {
+            @Override
+            public PendingMutation run(TweetDao tweetDao) {
+                PendingMutation mutation = PendingMutation.publish(body);
+                mutation.id = outboxDao.insert(mutation);
+                queueDepth = outboxDao.count();
+                return mutation;
+            }
+        }, new IngestPipeline.Result<PendingMutation>() {
+            @Override
+            public void onResult(PendingMutation mutation) {
+                notifyPending(mutation);
+                drain();
+            }
+        });
+    }
+
+    // Sends a refused new tweet again, given its local copy
+    public void retryPublish(Tweet localTweet) {
+        final long mutationId = PendingMutation.mutationId(localTweet);
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<PendingMutation>() {
+            @Override
+            public PendingMutation run(TweetDao tweetDao) {
+                PendingMutation mutation = outboxDao.byId(mutationId);
+                if (mutation != null) {
+                    mutation.failed = false;
+                    mutation.attempts = 0;
+                    outboxDao.update(mutation);
+                    queueDepth = outboxDao.count();
+                }
+                return mutation;
+            }
+        }, new IngestPipeline.Result<PendingMutation>() {
+            @Override
+            public void onResult(PendingMutation mutation) {
+                if (mutation != null) {
+                    notifyPending(mutation);
+                    retryNow();
+                }
+            }
+        });
+    }
+
+    // Hands every new tweet not published yet to the listeners, e.g. for a timeline just read
+    // from the database
+    public void showPending() {
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<List<PendingMutation>>() {
+            @Override
+            public List<PendingMutation> run(TweetDao tweetDao) {
+                return outboxDao.pendingPublishes();
+            }
+        }, new IngestPipeline.Result<List<PendingMutation>>() {
+            @Override
+            public void onResult(List<PendingMutation> mutations) {
+                for (PendingMutation mutation : mutations) {
+                    notifyPending(mutation);
+                }
+            }
+        });
+    }
+
+    private void notifyPending(PendingMutation mutation) {
+        Tweet localTweet = mutation.toLocalTweet(localAuthor);
+        for (Listener listener : listeners) {
+            listener.onTweetPending(localTweet);
+        }
+    }
+
+    // Sends the oldest pending mutation, and keeps going until the outbox is empty or a send fails
+    public void drain() {
+        if (draining || retryScheduled) {
+            return;
+        }
+        draining = true;
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<PendingMutation>() {
+            @Override
+            public PendingMutation run(TweetDao tweetDao) {
+                PendingMutation next = outboxDao.oldest();
+                inFlightId = next == null ? -1 : next.id;
+                return next;
+            }
+        }, new IngestPipeline.Result<PendingMutation>() {
+            @Override
+            public void onResult(PendingMutation next) {
+                if (next == null) {
+                    draining = false;
+                    queueDepth = 0;
+                    return;
+                }
+                send(next);
+            }
+        });
+    }
+
+    private void send(final PendingMutation mutation) {
+        TweetStreamHandler handler = new TweetStreamHandler(ingestScope, true) {
+            @Override
+            public void onSuccess(int statusCode, Headers headers, List<Tweet> tweets) {
+                recordLatency(mutation);
+                Tweet tweet = tweets.get(0);
+                if (mutation.type == PendingMutation.TYPE_PUBLISH) {
+                    localAuthor = tweet.user;
+                }
+                for (Listener listener : listeners) {
+                    if (mutation.type == PendingMutation.TYPE_PUBLISH) {
+                        listener.onTweetPublished(Tweet.LOCAL_ID_BASE + mutation.id, tweet);
+                    } else {
+                        listener.onTweetUpdated(tweet);
+                    }
+                }
+                complete(mutation, true);
+            }
+
+            @Override
+            public void onFailure(int statusCode, Headers headers, String response, Throwable throwable) {
+                Log.e(TAG, "Sending mutation " + mutation.id + " failed: " + response, throwable);
+                int errorCode = errorCode(response);
+                // Anything else, 401 and 403 included, may go through later: after a new login,
+                // once a rate limit resets...
+                if (statusCode == 404 || errorCode == ERROR_NO_STATUS || errorCode == ERROR_DUPLICATE_STATUS
+                        || errorCode == ERROR_ALREADY_FAVORITED) {
+                    // The server already has the state we asked for if the tweet is already liked,
+                    // or if an unlike finds no like of it (Twitter answers 144 for both a tweet
+                    // that is not liked and one that is gone). Nothing to undo then
+                    boolean alreadyApplied = errorCode == ERROR_ALREADY_FAVORITED
+                            || mutation.type == PendingMutation.TYPE_UNLIKE;
+                    reject(mutation, !alreadyApplied);
+                } else {
+                    complete(mutation, false);
+                }
+            }
+        };
+        if (client == null) {
+            client = TwitterApp.getRestClient(context);
+        }
+        switch (mutation.type) {
+            case PendingMutation.TYPE_LIKE:
+                client.likeTweet(mutation.tweetId, handler);
+                break;
+            case PendingMutation.TYPE_UNLIKE:
+                client.unlikeTweet(mutation.tweetId, handler);
+                break;
+            default:
+                client.publishTweet(mutation.body, handler);
+        }
+    }
+
+    // Drops a mutation the server refused. A refused like or unlike is undone in the database
+    // and listeners get the tweet as it is now, unless a later toggle of it is still queued. A
+    // refused new tweet is kept, marked as failed, for the user to retry
+    private void reject(final PendingMutation mutation, final boolean rollBack) {
+        if (mutation.type == PendingMutation.TYPE_PUBLISH) {
+            markFailed(mutation);
+            return;
+        }
+        if (!rollBack) {
+            complete(mutation, true);
+            return;
+        }
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<Tweet>() {
+            @Override
+            public Tweet run(TweetDao tweetDao) {
+                if (outboxDao.pendingLikeToggle(mutation.tweetId, mutation.id) == null) {
+                    boolean liked = mutation.type == PendingMutation.TYPE_LIKE;
+                    tweetDao.applyLike(mutation.tweetId, !liked, liked ? -1 : 1);
+                }
+                TweetWithUser tweetWithUser = tweetDao.itemById(mutation.tweetId);
+                return tweetWithUser == null ? null
+                        : TweetWithUser.getTweetList(Collections.singletonList(tweetWithUser)).get(0);
+            }
+        }, new IngestPipeline.Result<Tweet>() {
+            @Override
+            public void onResult(Tweet tweet) {
+                if (tweet != null) {
+                    for (Listener listener : listeners) {
+                        listener.onTweetUpdated(tweet);
+                    }
+                }
+                complete(mutation, true);
+            }
+        });
+    }
+
+    private void markFailed(final PendingMutation mutation) {
+        mutation.failed = true;
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<Integer>() {
+            @Override
+            public Integer run(TweetDao tweetDao) {
+                outboxDao.update(mutation);
+                inFlightId = -1;
+                return outboxDao.count();
+            }
+        }, new IngestPipeline.Result<Integer>() {
+            @Override
+            public void onResult(Integer count) {
+                queueDepth = count;
+                draining = false;
+                notifyPending(mutation);
+                // Later mutations do not wait for the user
+                drain();
+            }
+        });
+    }
+
+    // First Twitter error code in an error response, 0 if there is none
+    private static int errorCode(String response) {
+        if (response == null) {
+            return 0;
+        }
+        try {
+            JSONArray errors = new JSONObject(response).optJSONArray("errors");
+            return errors == null || errors.length() == 0 ? 0 : errors.getJSONObject(0).optInt("code");
+        } catch (JSONException e) {
+            return 0;
+        }
+    }
+
+    // Removes a mutation that is done, or counts a failed attempt and schedules the retry
+    private void complete(final PendingMutation mutation, final boolean done) {
+        if (!done) {
+            mutation.attempts++;
+        }
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<Integer>() {
+            @Override
+            public Integer run(TweetDao tweetDao) {
+                if (done) {
+                    outboxDao.delete(mutation);
+                } else {
+                    outboxDao.update(mutation);
+                }
+                inFlightId = -1;
+                return outboxDao.count();
+            }
+        }, new IngestPipeline.Result<Integer>() {
+            @Override
+            public void onResult(Integer count) {
+                queueDepth = count;
+                draining = false;
+                if (done) {
+                    drain();
+                } else {
+                    long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(mutation.attempts - 1, 16));
+                    Log.i(TAG, "Retrying outbox in " + backoff + "ms");
+                    retryScheduled = true;
+                    mainHandler.postDelayed(drainTask, backoff);
+                }
+            }
+        });
+    }
+
+    // Drains right away when the network comes back instead of waiting out the backoff
+    private void watchConnectivity(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
+        }
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        connectivityManager.registerNetworkCallback(request, new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        retryNow();
+                    }
+                });
+            }
+        });
+    }
+
+    // Sends right away instead of waiting out the backoff, e.g. once the user has logged in again
+    public void retryNow() {
+        if (retryScheduled) {
+            mainHandler.removeCallbacks(drainTask);
+            retryScheduled = false;
+        }
+        drain();
+    }
+
+    private void recordLatency(PendingMutation mutation) {
+        lastDrainLatencyMillis = System.currentTimeMillis() - mutation.createdAtMillis;
+        totalDrainLatencyMillis += lastDrainLatencyMillis;
+        sentCount++;
+    }
+
+    // Mutations waiting to be sent, as of the last outbox operation
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    // Time from the user's change to the server accepting it, for the last sent mutation
+    public long getLastDrainLatencyMillis() {
+        return lastDrainLatencyMillis;
+    }
+
+    public long getAverageDrainLatencyMillis() {
+        return sentCount == 0 ? -1 : totalDrainLatencyMillis / sentCount;
+    }
+}
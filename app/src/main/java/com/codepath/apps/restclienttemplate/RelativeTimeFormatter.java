@@ -0,0 +1,59 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.text.format.DateUtils;
+
+/*
+ * Short relative timestamps ("just now", "5m", "3h", "2d") for tweets, from the createdAtMillis
+ * parsed once at ingest. Every label is built once and then reused, so formatting a row neither
+ * parses a date nor allocates.
+ *
+ * Labels only change on whole minutes, see millisUntilNextMinute for scheduling refreshes.
+ */
+public final class RelativeTimeFormatter {
+
+    private static final String JUST_NOW = "just now";
+    // Days beyond this are formatted without caching, the cache holds far older tweets anyway
+    private static final int MAX_CACHED_DAYS = 366;
+
+    // Main thread only
+    private static final String[] MINUTES = new String[60];
+    private static final String[] HOURS = new String[24];
+    private static final String[] DAYS = new String[MAX_CACHED_DAYS];
+
+    private RelativeTimeFormatter() {}
+
+    // Label for a tweet created at timeMillis, or an empty string if the time is unknown
+    public static String format(long timeMillis, long nowMillis) {
+        if (timeMillis <= 0) {
+            return "";
+        }
+        long diff = nowMillis - timeMillis;
+        if (diff < DateUtils.MINUTE_IN_MILLIS) {
+            // Also covers tweets a skewed clock puts in the future
+            return JUST_NOW;
+        } else if (diff < DateUtils.HOUR_IN_MILLIS) {
+            return label(MINUTES, (int) (diff / DateUtils.MINUTE_IN_MILLIS), "m");
+        } else if (diff < DateUtils.DAY_IN_MILLIS) {
+            return label(HOURS, (int) (diff / DateUtils.HOUR_IN_MILLIS), "h");
+        }
+        long days = diff / DateUtils.DAY_IN_MILLIS;
+        if (days >= MAX_CACHED_DAYS) {
+            return days + "d";
+        }
+        return label(DAYS, (int) days, "d");
+    }
+
+    // Time until the next whole minute, when any label may change
+    public static long millisUntilNextMinute(long nowMillis) {
+        return DateUtils.MINUTE_IN_MILLIS - nowMillis % DateUtils.MINUTE_IN_MILLIS;
+    }
+
+    private static String label(String[] labels, int value, String unit) {
+        String label = labels[value];
+        if (label == null) {
+            label = value + unit;
+            labels[value] = label;
+        }
+        return label;
+    }
+}
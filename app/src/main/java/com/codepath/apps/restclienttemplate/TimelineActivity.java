@@ -1,14 +1,14 @@
 package com.codepath.apps.restclienttemplate;
 
-import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.DividerItemDecoration;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
@@ -16,45 +16,46 @@ import android.view.MenuItem;
 import android.widget.Toast;
 
 import com.codepath.apps.restclienttemplate.models.Tweet;
-import com.codepath.apps.restclienttemplate.models.TweetDao;
-import com.codepath.apps.restclienttemplate.models.TweetWithUser;
 import com.codepath.apps.restclienttemplate.models.User;
-import com.codepath.asynchttpclient.callback.JsonHttpResponseHandler;
+import com.codepath.apps.restclienttemplate.models.UserIdentityMap;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.parceler.Parcels;
-
-import java.util.ArrayList;
 import java.util.List;
 
-import okhttp3.Headers;
-
 public class TimelineActivity extends AppCompatActivity {
 
     public static final String TAG = "TimelineActivity";
-    public static final int REQUEST_CODE = 20;
 
-    TwitterClient client;
-    TweetDao tweetDao;
+    TimelineViewModel viewModel;
+    IngestPipeline.Scope ingestScope;
+    TimelinePager pager;
+    TweetSearch search;
     RecyclerView rvTweets;
-    List<Tweet> tweets;
     TweetsAdapter adapter;
     SwipeRefreshLayout swipeContainer;
     EndlessRecyclerViewScrollListener scrollListener;
+    TimelineWindow window;
+    UserIdentityMap.Listener userListener;
+    Outbox.Listener outboxListener;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_timeline);
+        // How long until the timeline, or at least its snapshot, is on screen
+        AppStartup.trackFirstFrame(this);
 
         // Find the RecyclerView
         rvTweets = findViewById(R.id.rvTweets);
 
-        client = TwitterApp.getRestClient(this);
-
-        // Retrieving the Twitter DAO from the application context and its database
-        tweetDao = ((TwitterApp) getApplicationContext()).getMyDatabase().tweetDao();
+        // The timeline, its paging state and in-flight requests survive configuration changes
+        viewModel = new ViewModelProvider(this, ViewModelProvider.AndroidViewModelFactory.getInstance(getApplication()))
+                .get(TimelineViewModel.class);
+        ingestScope = viewModel.getIngestScope();
+        pager = viewModel.getPager();
+        search = viewModel.getSearch();
+        window = viewModel.getWindow();
+        // The search view starts out collapsed again
+        search.clear();
 
         // Get reference to swipe container
         swipeContainer = findViewById(R.id.swipeContainer);
@@ -72,14 +73,51 @@ public class TimelineActivity extends AppCompatActivity {
                 android.R.color.holo_orange_light,
                 android.R.color.holo_red_light);
 
-        // Init the list of Tweets and adapter
-        tweets = new ArrayList<>();
-        adapter = new TweetsAdapter(this, tweets);
+        // Init the adapter, which shows the timeline held by the view model
+        adapter = new TweetsAdapter(this, ingestScope, viewModel.getTimeline());
+
+        // Rebind the rows of users whose name or avatar changed
+        userListener = new UserIdentityMap.Listener() {
+            @Override
+            public void onUserChanged(User user) {
+                adapter.notifyUserChanged(user);
+            }
+        };
+        UserIdentityMap.getInstance().addListener(userListener);
+
+        // Show tweets composed here while they are sent and once Twitter has them, and the
+        // server's copy of liked tweets
+        outboxListener = new Outbox.Listener() {
+            @Override
+            public void onTweetUpdated(Tweet tweet) {
+                adapter.update(tweet);
+            }
+
+            @Override
+            public void onTweetPending(Tweet localTweet) {
+                // Local tweets sort above every other, so it goes to the top of the timeline
+                // or replaces its earlier copy there
+                adapter.addFirst(localTweet);
+                // Have the recycler view scroll to top to see newly added tweet
+                rvTweets.smoothScrollToPosition(0);
+            }
+
+            @Override
+            public void onTweetPublished(long localId, Tweet tweet) {
+                // The server's copy takes the place of the local one, unless the top of the
+                // timeline has been dropped from memory
+                window.onPublished(localId, tweet);
+            }
+        };
+        ((TwitterApp) getApplicationContext()).getOutbox().addListener(outboxListener);
 
         // RecyclerView Setup: layout manager and adapter
         LinearLayoutManager layoutManager = new LinearLayoutManager(this);
         rvTweets.setLayoutManager(layoutManager);
         rvTweets.setAdapter(adapter);
+        // Tweets already in memory are bound right away, in time for the scroll position to be
+        // restored
+        adapter.attach();
 
         // Creates a scroll listener
         scrollListener = new EndlessRecyclerViewScrollListener(layoutManager) {
@@ -89,58 +127,174 @@ public class TimelineActivity extends AppCompatActivity {
                 loadMoreData();
             }
         };
+        // Prefetch at most two pages ahead on a fast fling
+        scrollListener.setMaxThreshold(2 * TimelinePager.PAGE_SIZE);
         // Adds scroll listener to the recycler view
         rvTweets.addOnScrollListener(scrollListener);
+        // Only a window of rows around the viewport is held in memory, however far the user scrolls
+        window.attach(adapter, layoutManager);
+        rvTweets.addOnScrollListener(window);
+        // Loads the images of the rows about to scroll into view ahead of time
+        rvTweets.addOnScrollListener(new TweetImagePreloader(adapter, layoutManager));
+
+        // Show the first page of tweets from our database right away, unless the timeline is
+        // still in memory from before a configuration change
+        viewModel.loadFirstPage();
 
-        // Query for existing tweets in the database in background task, i.e. Async task
-        AsyncTask.execute(new Runnable() {
+        DividerItemDecoration itemDecor = new DividerItemDecoration(rvTweets.getContext(), DividerItemDecoration.VERTICAL);
+        rvTweets.addItemDecoration(itemDecor);
+
+        viewModel.setRefreshListener(new TimelineViewModel.RefreshListener() {
             @Override
-            public void run() {
-                Log.i(TAG, "Showing data from our database");
-                // Calling the recentItems query wrapper to perform query action on our DB
-                List<TweetWithUser> tweetWithUsers = tweetDao.recentItems();
-                List<Tweet> tweetsFromDB = TweetWithUser.getTweetList(tweetWithUsers);
-                adapter.clear();
-                adapter.addAll(tweetsFromDB);
+            public void onRefreshFinished() {
+                scrollListener.resetState();
+                // Now we call setRefreshing(false) to signal refresh has finished
+                swipeContainer.setRefreshing(false);
             }
         });
+        if (viewModel.isRefreshing()) {
+            // Started before a configuration change and still running
+            swipeContainer.setRefreshing(true);
+        } else if (viewModel.isStale()) {
+            populateHomeTimeline();
+        }
+    }
 
-        DividerItemDecoration itemDecor = new DividerItemDecoration(rvTweets.getContext(), DividerItemDecoration.VERTICAL);
-        rvTweets.addItemDecoration(itemDecor);
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Keep the relative timestamps current while the timeline is on screen
+        adapter.startTicking();
+    }
 
-        populateHomeTimeline();
+    @Override
+    protected void onStop() {
+        adapter.stopTicking();
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // In-flight requests belong to the view model and outlive a configuration change, their
+        // results go to whichever screen shows the timeline next
+        adapter.detach();
+        window.detach();
+        viewModel.setRefreshListener(null);
+        UserIdentityMap.getInstance().removeListener(userListener);
+        ((TwitterApp) getApplicationContext()).getOutbox().removeListener(outboxListener);
+        super.onDestroy();
     }
 
     private void loadMoreData() {
-        // 1. Send an API request to retrieve appropriate paginated data
-        client.getNextPageOfTweets(new JsonHttpResponseHandler() {
-            @Override
-            public void onSuccess(int statusCode, Headers headers, JSON json) {
-                Log.i(TAG, "onSuccess for loadMoreData! " + json.toString());
-                // 2. Deserialize and construct new model objects from the API response
-                JSONArray jsonArray = json.jsonArray;
-                try {
-                    List<Tweet> newTweets = Tweet.fromJsonArray(jsonArray);
-                    // 3. Append the new data objects to the existing set of items inside the array of items
-                    // 4. Notify the adapter of the new items (this is done in our addAll method with
-                    // notifyDataSetChanged())
-                    adapter.addAll(newTweets);
-                } catch (JSONException e) {
-                    e.printStackTrace();
+        if (search.isActive()) {
+            loadMoreSearchResults();
+            return;
+        }
+        // 1. Ask the pager for the next page, read from Room or, once the cache runs out,
+        // fetched from the API and persisted first
+        final int tailGeneration = window.getTailGeneration();
+        pager.loadNextPage(new TimelinePager.Callback() {
+            @Override
+            public void onPage(List<Tweet> newTweets) {
+                Log.i(TAG, "onPage for loadMoreData! " + newTweets.size());
+                if (!window.isCurrentTail(tailGeneration)) {
+                    // The rows this page follows were dropped from the window meanwhile, let the
+                    // next scroll ask again from the new bottom
+                    scrollListener.onLoadFailed();
+                    return;
+                }
+                // 2. Append the new data objects to the existing set of items inside the array of items
+                // 3. Notify the adapter of the new items (this is done in our addAll method, which
+                // dispatches a range insert once the diff is computed)
+                if (adapter.addAll(newTweets) == 0 && !newTweets.isEmpty()) {
+                    // Every tweet was already shown, e.g. pages re-read after a refresh. The
+                    // list did not grow, so the scroll listener would wait forever: keep going
+                    loadMoreData();
                 }
             }
 
             @Override
-            public void onFailure(int statusCode, Headers headers, String response, Throwable throwable) {
+            public void onFailure(Throwable throwable) {
                 Log.e(TAG, "onFailure for loadMoreData! ", throwable);
+                scrollListener.onLoadFailed();
             }
-        }, tweets.get(tweets.size() - 1).id);
+        });
+    }
+
+    private void loadMoreSearchResults() {
+        search.loadNextPage(new TimelinePager.Callback() {
+            @Override
+            public void onPage(List<Tweet> results) {
+                adapter.addSearchResults(results);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                Log.e(TAG, "onFailure for loadMoreSearchResults! ", throwable);
+                scrollListener.onLoadFailed();
+            }
+        });
+    }
+
+    // Runs a new search as the user types, replacing whatever the list shows
+    private void searchTweets(String text) {
+        search.search(text, new TimelinePager.Callback() {
+            @Override
+            public void onPage(List<Tweet> results) {
+                adapter.showSearchResults(results);
+                scrollListener.resetState();
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                Log.e(TAG, "onFailure for searchTweets! ", throwable);
+            }
+        });
+    }
+
+    // Leaves search and goes back to the timeline, which kept its pages and updates meanwhile
+    private void closeSearch() {
+        search.clear();
+        adapter.closeSearch();
+        scrollListener.resetState();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if they are present
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // Search the cached tweets while the search action view is expanded
+        MenuItem searchItem = menu.findItem(R.id.search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchTweets(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                searchTweets(newText);
+                return true;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                swipeContainer.setEnabled(false);
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                swipeContainer.setEnabled(true);
+                closeSearch();
+                return true;
+            }
+        });
         // true must be returned by this method for the menu to be displayed
         return true;
     }
@@ -151,64 +305,13 @@ public class TimelineActivity extends AppCompatActivity {
             // The compose icon has been selected
             // Navigate to the compose activity
             Intent intent = new Intent(this, ComposeActivity.class);
-            startActivityForResult(intent, REQUEST_CODE);
+            startActivity(intent);
             return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
-        // Confirm request code is for compose activity and confirm result code is ok
-        if(requestCode == REQUEST_CODE && resultCode == RESULT_OK) {
-            // Retrieve data from the intent (tweet)
-            Tweet tweet = Parcels.unwrap(data.getParcelableExtra("tweet"));
-            // Update recycler view with the tweet
-            // Modify data source (list) of tweets
-            tweets.add(0, tweet);
-            // Notify the adapter of data change
-            adapter.notifyItemInserted(0);
-            // Have the recycler view scroll to top to see newly added tweet
-            rvTweets.smoothScrollToPosition(0);
-        }
-
-        super.onActivityResult(requestCode, resultCode, data);
-    }
-
     private void populateHomeTimeline() {
-        client.getHomeTimeline(new JsonHttpResponseHandler() {
-            @Override
-            public void onSuccess(int statusCode, Headers headers, JSON json) {
-                Log.i(TAG, "onSuccess!" + json.toString());
-                JSONArray jsonArray = json.jsonArray;
-                try {
-                    final List<Tweet> tweetsFromNetwork = Tweet.fromJsonArray(jsonArray);
-                    adapter.clear();
-                    adapter.addAll(tweetsFromNetwork);
-                    // Now we call setRefreshing(false) to signal refresh has finished
-                    swipeContainer.setRefreshing(false);
-                    // Execute another background Async task to add retrieved tweets to
-                    // out Room database
-                    AsyncTask.execute(new Runnable() {
-                        @Override
-                        public void run() {
-                            Log.i(TAG, "Saving data to database");
-                            // Insert users first
-                            List<User> usersFromNetwork = User.fromJsonTweetArray(tweetsFromNetwork);
-                            tweetDao.insertModel(usersFromNetwork.toArray(new User[0]));
-                            // Insert tweets next
-                            tweetDao.insertModel(tweetsFromNetwork.toArray(new Tweet[0]));
-                        }
-                    });
-                } catch (JSONException e) {
-                    Log.e(TAG, "Json Exception: ", e);
-                }
-            }
-
-            @Override
-            public void onFailure(int statusCode, Headers headers, String response, Throwable throwable) {
-                Log.e(TAG, "onFailure! " + response, throwable);
-            }
-        });
+        viewModel.refresh();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,298 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.codepath.apps.restclienttemplate.models.TimelineGap;
+import com.codepath.apps.restclienttemplate.models.Tweet;
+import com.codepath.apps.restclienttemplate.models.TweetDao;
+import com.codepath.apps.restclienttemplate.models.TweetWithUser;
+
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.Headers;
+
+/*
+ * Pages the home timeline straight out of Room, newest first, using keyset pagination on
+ * (createdAtMillis, id). The network is only asked for older tweets when the local cache runs
+ * out (the boundary); each fetched page is persisted by the ingest pipeline and then read back
+ * from Room, so the database stays the single source of truth for what is displayed.
+ *
+ * Refreshing is incremental: only tweets newer than the newest synced tweet (the head) are
+ * requested, paging forward until they connect to the cache. When they do not connect within
+ * MAX_SYNC_PAGES, the missing range is recorded as a TimelineGap and filled once the user
+ * scrolls into it.
+ */
+public class TimelinePager {
+    private static final String TAG = "TimelinePager";
+
+    public static final int PAGE_SIZE = TwitterClient.TIMELINE_PAGE_SIZE;
+    // Pages an incremental sync may fetch before it gives up and records a gap
+    public static final int MAX_SYNC_PAGES = 3;
+
+    private static final String PREFS_NAME = "TimelinePager";
+    private static final String KEY_HEAD_ID = "head_id";
+
+    // Receives each page of tweets on the main thread
+    public interface Callback {
+        void onPage(List<Tweet> tweets);
+
+        void onFailure(Throwable throwable);
+    }
+
+    // A page read from the cache, together with the gap that cuts through it, if any
+    private static class CachedPage {
+        List<Tweet> tweets;
+        TimelineGap gap;
+    }
+
+    private final TwitterClient client;
+    private final IngestPipeline.Scope ingestScope;
+    private final SharedPreferences prefs;
+
+    // Sort key of the last tweet handed out, the next page starts right after it
+    private long cursorMillis = Long.MAX_VALUE;
+    private long cursorId = Long.MAX_VALUE;
+    // True once the network has no tweets older than the cursor
+    private boolean endReached;
+
+    public TimelinePager(Context context, TwitterClient client, IngestPipeline.Scope ingestScope) {
+        this.client = client;
+        this.ingestScope = ingestScope;
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // Loads the first page from the cache, going to the network only if the cache is empty
+    public void loadFirstPage(Callback callback) {
+        resetCursor();
+        loadNextPage(callback);
+    }
+
+    // Loads the page after the cursor from the cache. Gaps inside the page are filled first, and
+    // the network boundary is only hit when the cache runs out
+    public void loadNextPage(final Callback callback) {
+        final long fromMillis = cursorMillis;
+        final long fromId = cursorId;
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<CachedPage>() {
+            @Override
+            public CachedPage run(TweetDao tweetDao) {
+                CachedPage page = new CachedPage();
+                List<TweetWithUser> tweetWithUsers = tweetDao.itemsBefore(fromMillis, fromId, PAGE_SIZE);
+                page.tweets = TweetWithUser.getTweetList(tweetWithUsers);
+                // A short page runs to the end of the cache, so any gap below the cursor counts
+                long lowId = page.tweets.size() < PAGE_SIZE ? 0 : page.tweets.get(page.tweets.size() - 1).id;
+                page.gap = tweetDao.gapWithin(lowId, fromId);
+                return page;
+            }
+        }, new IngestPipeline.Result<CachedPage>() {
+            @Override
+            public void onResult(CachedPage page) {
+                if (page.gap != null) {
+                    fillGap(page.gap, callback);
+                } else if (page.tweets.size() < PAGE_SIZE && !endReached) {
+                    fetchBoundary(callback);
+                } else {
+                    deliver(page.tweets, callback);
+                }
+            }
+        });
+    }
+
+    // Loads the cached page right above the given tweet, newest first. Only reads the cache: it
+    // brings back tweets a windowed timeline dropped, new ones come from refresh
+    public void loadNewerPage(final Tweet newest, final Callback callback) {
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<List<Tweet>>() {
+            @Override
+            public List<Tweet> run(TweetDao tweetDao) {
+                List<Tweet> tweets = TweetWithUser.getTweetList(
+                        tweetDao.itemsAfter(newest.createdAtMillis, newest.id, PAGE_SIZE));
+                Collections.reverse(tweets);
+                return tweets;
+            }
+        }, new IngestPipeline.Result<List<Tweet>>() {
+            @Override
+            public void onResult(List<Tweet> tweets) {
+                callback.onPage(tweets);
+            }
+        });
+    }
+
+    // Moves the cursor so the next page starts right after the given tweet, e.g. once a windowed
+    // timeline dropped the rows below it
+    public void seekTo(Tweet oldest) {
+        cursorMillis = oldest.createdAtMillis;
+        cursorId = oldest.id;
+        endReached = false;
+    }
+
+    // Fetches only the tweets newer than the head, then starts over from the top of the cache
+    public void refresh(final Callback callback) {
+        long headId = prefs.getLong(KEY_HEAD_ID, 0);
+        if (headId > 0) {
+            syncForward(headId, 0, MAX_SYNC_PAGES, 0, callback);
+            return;
+        }
+        // Nothing synced yet, fall back to the newest cached tweet, if any
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<Long>() {
+            @Override
+            public Long run(TweetDao tweetDao) {
+                return tweetDao.newestId();
+            }
+        }, new IngestPipeline.Result<Long>() {
+            @Override
+            public void onResult(Long newestId) {
+                syncForward(newestId == null ? 1 : newestId, 0, MAX_SYNC_PAGES, 0, callback);
+            }
+        });
+    }
+
+    // Requests tweets in (sinceId, maxId], walking backwards from the newest one until a page
+    // reaches sinceId or the page budget is spent
+    private void syncForward(final long sinceId, long maxId, final int pagesLeft, final long newestId, final Callback callback) {
+        client.getHomeTimeline(new TweetStreamHandler(ingestScope, true) {
+            @Override
+            public void onSuccess(int statusCode, Headers headers, List<Tweet> tweets) {
+                Log.i(TAG, "sync persisted " + tweets.size() + " tweets since " + sinceId);
+                long newest = newestId == 0 && !tweets.isEmpty() ? tweets.get(0).id : newestId;
+                if (reaches(tweets, sinceId)) {
+                    finishSync(newest, null, callback);
+                    return;
+                }
+                long oldestId = tweets.get(tweets.size() - 1).id;
+                if (pagesLeft <= 1) {
+                    finishSync(newest, new TimelineGap(sinceId, oldestId - 1), callback);
+                } else {
+                    syncForward(sinceId, oldestId - 1, pagesLeft - 1, newest, callback);
+                }
+            }
+
+            @Override
+            public void onFailure(int statusCode, Headers headers, String response, Throwable throwable) {
+                Log.e(TAG, "sync failed " + response, throwable);
+                callback.onFailure(throwable);
+            }
+        }, inclusive(sinceId), maxId);
+    }
+
+    // Records the new head and any gap left behind, then reads the first page again
+    private void finishSync(long newestId, final TimelineGap gap, final Callback callback) {
+        if (newestId > 0) {
+            prefs.edit().putLong(KEY_HEAD_ID, newestId).apply();
+        }
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<List<Tweet>>() {
+            @Override
+            public List<Tweet> run(TweetDao tweetDao) {
+                if (gap != null) {
+                    Log.i(TAG, "recording gap (" + gap.sinceId + ", " + gap.maxId + "]");
+                    tweetDao.insertGap(gap);
+                }
+                return TweetWithUser.getTweetList(tweetDao.recentItems(PAGE_SIZE));
+            }
+        }, new IngestPipeline.Result<List<Tweet>>() {
+            @Override
+            public void onResult(List<Tweet> tweets) {
+                resetCursor();
+                deliver(tweets, callback);
+            }
+        });
+    }
+
+    // Fetches the newest page of a gap; the gap shrinks to what is still missing, or is removed
+    // once a page reaches its lower end. The page that ran into the gap is then read again
+    private void fillGap(final TimelineGap gap, final Callback callback) {
+        client.getHomeTimeline(new TweetStreamHandler(ingestScope, true) {
+            @Override
+            public void onSuccess(int statusCode, Headers headers, final List<Tweet> tweets) {
+                Log.i(TAG, "gap fill persisted " + tweets.size() + " tweets");
+                ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<Void>() {
+                    @Override
+                    public Void run(TweetDao tweetDao) {
+                        if (reaches(tweets, gap.sinceId)) {
+                            tweetDao.deleteGap(gap);
+                        } else {
+                            gap.maxId = tweets.get(tweets.size() - 1).id - 1;
+                            tweetDao.insertGap(gap);
+                        }
+                        return null;
+                    }
+                }, new IngestPipeline.Result<Void>() {
+                    @Override
+                    public void onResult(Void result) {
+                        loadNextPage(callback);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(int statusCode, Headers headers, String response, Throwable throwable) {
+                Log.e(TAG, "gap fill failed " + response, throwable);
+                callback.onFailure(throwable);
+            }
+        }, inclusive(gap.sinceId), gap.maxId);
+    }
+
+    // The API's since_id is exclusive, so the tweet at sinceId is asked for as well: a page that
+    // brings it back has met the tweets already cached below it
+    private static long inclusive(long sinceId) {
+        return Math.max(sinceId - 1, 1);
+    }
+
+    // Whether a page fetched from inclusive(sinceId) connects to what is cached at sinceId. Its
+    // size says nothing, the API may hand back fewer tweets than asked for before the end; an
+    // empty page does mean nothing newer is left, e.g. when the tweet at sinceId was deleted
+    private static boolean reaches(List<Tweet> tweets, long sinceId) {
+        return tweets.isEmpty() || tweets.get(tweets.size() - 1).id <= sinceId;
+    }
+
+    // The cache ran out: ask the API for the page older than the cursor, let the pipeline
+    // persist it and read the same page again from Room
+    private void fetchBoundary(final Callback callback) {
+        final boolean emptyCache = cursorId == Long.MAX_VALUE;
+        TweetStreamHandler handler = new TweetStreamHandler(ingestScope, true) {
+            @Override
+            public void onSuccess(int statusCode, Headers headers, List<Tweet> tweets) {
+                Log.i(TAG, "boundary fetch persisted " + tweets.size() + " tweets");
+                if (tweets.isEmpty()) {
+                    endReached = true;
+                } else if (emptyCache && prefs.getLong(KEY_HEAD_ID, 0) == 0) {
+                    prefs.edit().putLong(KEY_HEAD_ID, tweets.get(0).id).apply();
+                }
+                ingestScope.loadBefore(cursorMillis, cursorId, PAGE_SIZE, new IngestPipeline.Listener() {
+                    @Override
+                    public void onTweets(List<Tweet> tweets) {
+                        deliver(tweets, callback);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(int statusCode, Headers headers, String response, Throwable throwable) {
+                Log.e(TAG, "boundary fetch failed " + response, throwable);
+                callback.onFailure(throwable);
+            }
+        };
+        if (emptyCache) {
+            client.getHomeTimeline(handler);
+        } else {
+            // max_id is inclusive, ask for everything strictly older than the cursor
+            client.getNextPageOfTweets(handler, cursorId - 1);
+        }
+    }
+
+    private void resetCursor() {
+        cursorMillis = Long.MAX_VALUE;
+        cursorId = Long.MAX_VALUE;
+        endReached = false;
+    }
+
+    private void deliver(List<Tweet> tweets, Callback callback) {
+        if (!tweets.isEmpty()) {
+            Tweet last = tweets.get(tweets.size() - 1);
+            cursorMillis = last.createdAtMillis;
+            cursorId = last.id;
+        }
+        callback.onPage(tweets);
+    }
+}
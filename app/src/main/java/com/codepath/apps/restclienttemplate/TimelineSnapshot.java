@@ -0,0 +1,239 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.util.AtomicFile;
+
+import com.codepath.apps.restclienttemplate.models.Tweet;
+import com.codepath.apps.restclienttemplate.models.TweetEntities;
+import com.codepath.apps.restclienttemplate.models.User;
+import com.codepath.apps.restclienttemplate.models.UserIdentityMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/*
+ * The top of the timeline as it was after the last sync, in a small binary file read before Room
+ * is opened, so a cold start has rows to draw in its first frame. The tweets read from Room then
+ * replace them; rows that did not change are kept as they are.
+ *
+ * Everything a row shows is stored ready to bind: each user once, with the tweets referring to
+ * it by index, creation times in epoch millis, and the entity spans of the body. The file is read
+ * in a single sequential read and replaced atomically, so a crash mid-write leaves the previous
+ * snapshot in place.
+ */
+public class TimelineSnapshot {
+    private static final String TAG = "TimelineSnapshot";
+
+    private static final String FILE_NAME = "timeline.snapshot";
+    private static final int MAGIC = 0x54574c53;
+    // Bump when the layout below changes, older files are then ignored
+    private static final int VERSION = 1;
+    // Rows kept, enough to fill the first screen
+    public static final int MAX_ROWS = TimelinePager.PAGE_SIZE;
+    // More entities than a tweet can hold: it has at most 280 characters, and every entity spans
+    // at least one
+    private static final int MAX_ENTITIES = 280;
+
+    // Writes happen after a sync, off the main thread and one at a time
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final AtomicFile file;
+
+    public TimelineSnapshot(Context context) {
+        this.file = new AtomicFile(new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    // Reads the snapshot on the calling thread, or returns an empty list if there is none or it
+    // cannot be read
+    public List<Tweet> read() {
+        long start = SystemClock.elapsedRealtime();
+        byte[] bytes;
+        try {
+            bytes = file.readFully();
+        } catch (FileNotFoundException e) {
+            return Collections.emptyList();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read snapshot", e);
+            return Collections.emptyList();
+        }
+        try {
+            List<Tweet> tweets = decode(bytes);
+            Log.i(TAG, "read " + tweets.size() + " tweets in " + (SystemClock.elapsedRealtime() - start) + "ms");
+            return tweets;
+        } catch (IOException | RuntimeException e) {
+            // Truncated, corrupted, or written by another version
+            Log.e(TAG, "Ignoring unreadable snapshot", e);
+            return Collections.emptyList();
+        }
+    }
+
+    // Replaces the snapshot with the top of the given timeline, in the background
+    public void write(List<Tweet> timeline) {
+        final List<Tweet> tweets = new ArrayList<>(timeline.subList(0, Math.min(timeline.size(), MAX_ROWS)));
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream out = null;
+                try {
+                    byte[] bytes = encode(tweets);
+                    out = file.startWrite();
+                    out.write(bytes);
+                    file.finishWrite(out);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to write snapshot", e);
+                    if (out != null) {
+                        file.failWrite(out);
+                    }
+                }
+            }
+        });
+    }
+
+    private static byte[] encode(List<Tweet> tweets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(tweets.size() * 512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        // Users first, each once
+        Map<Long, Integer> userIndexes = new HashMap<>();
+        List<User> users = new ArrayList<>();
+        for (Tweet tweet : tweets) {
+            if (!userIndexes.containsKey(tweet.user.id)) {
+                userIndexes.put(tweet.user.id, users.size());
+                users.add(tweet.user);
+            }
+        }
+        out.writeInt(users.size());
+        for (User user : users) {
+            out.writeLong(user.id);
+            writeString(out, user.name);
+            writeString(out, user.screenName);
+            writeString(out, user.publicImageUrl);
+        }
+
+        out.writeInt(tweets.size());
+        for (Tweet tweet : tweets) {
+            out.writeLong(tweet.id);
+            out.writeInt(userIndexes.get(tweet.user.id));
+            out.writeLong(tweet.createdAtMillis);
+            writeString(out, tweet.createdAt);
+            writeString(out, tweet.body);
+            writeString(out, tweet.mediaUrl);
+            writeString(out, tweet.mediaSizes);
+            out.writeBoolean(tweet.liked);
+            out.writeLong(tweet.likeCount);
+            TweetEntities entities = tweet.getBodyEntities();
+            if (entities == null) {
+                out.writeInt(-1);
+                continue;
+            }
+            out.writeInt(entities.getEntities().size());
+            for (TweetEntities.Entity entity : entities.getEntities()) {
+                out.writeByte(entity.type);
+                out.writeInt(entity.start);
+                out.writeInt(entity.end);
+                writeString(out, entity.value);
+                writeString(out, entity.display);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static List<Tweet> decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unknown snapshot format");
+        }
+
+        User[] users = new User[readCount(in, MAX_ROWS)];
+        for (int i = 0; i < users.length; i++) {
+            User user = new User();
+            user.id = in.readLong();
+            user.name = readString(in);
+            user.screenName = readString(in);
+            user.publicImageUrl = readString(in);
+            // The shared object for this user if one is loaded, our copy may be older
+            users[i] = UserIdentityMap.getInstance().resolve(user);
+        }
+
+        int count = readCount(in, MAX_ROWS);
+        List<Tweet> tweets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Tweet tweet = new Tweet();
+            tweet.id = in.readLong();
+            int userIndex = in.readInt();
+            if (userIndex < 0 || userIndex >= users.length) {
+                throw new IOException("User index out of range: " + userIndex);
+            }
+            tweet.user = users[userIndex];
+            tweet.userId = tweet.user.id;
+            tweet.createdAtMillis = in.readLong();
+            tweet.createdAt = readString(in);
+            tweet.body = readString(in);
+            tweet.mediaUrl = readString(in);
+            tweet.mediaSizes = readString(in);
+            tweet.liked = in.readBoolean();
+            tweet.likeCount = in.readLong();
+            // -1 when the tweet has no entities
+            int entityCount = in.readInt();
+            if (entityCount < -1 || entityCount > MAX_ENTITIES) {
+                throw new IOException("Entity count out of range: " + entityCount);
+            }
+            if (entityCount >= 0) {
+                TweetEntities entities = new TweetEntities();
+                for (int j = 0; j < entityCount; j++) {
+                    byte type = in.readByte();
+                    int start = in.readInt();
+                    int end = in.readInt();
+                    if (start < 0 || end < start) {
+                        throw new IOException("Entity span out of range: " + start + "-" + end);
+                    }
+                    entities.add(new TweetEntities.Entity(type, start, end, readString(in), readString(in)));
+                }
+                tweet.setBodyEntities(entities);
+                // In stored form too, so the row is not rebound when Room's copy replaces it
+                tweet.entities = entities.isEmpty() ? null : entities.encode();
+            }
+            tweets.add(tweet);
+        }
+        return tweets;
+    }
+
+    // A count written by encode, which never exceeds max
+    private static int readCount(DataInputStream in, int max) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("Count out of range: " + count);
+        }
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,318 @@
+package com.codepath.apps.restclienttemplate;
+
+import com.codepath.apps.restclienttemplate.models.Tweet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * In-memory timeline, newest first, keyed by tweet id. Twitter ids grow with time, so sorting by
+ * id descending is the timeline order.
+ *
+ * Ids are kept in a sorted primitive long[] next to the tweets, so a fetched page of any kind (a
+ * newer head page, an older tail page, or a page filling a gap in between) is merged by binary
+ * searching its position instead of scanning the list. Tweets already present are replaced in
+ * place rather than duplicated. A merge reports the ranges it inserted.
+ *
+ * Lookups by id go through an id -> position map. A merge only moves the tweets after its first
+ * insertion, so only that part of the map is rebuilt, lazily on the next lookup.
+ *
+ * The store outlives the screens showing it (see TimelineViewModel), which follow it through a
+ * Listener. Main thread only.
+ */
+public class TimelineStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Newest first within a page, and duplicates next to each other
+    private static final Comparator<Tweet> NEWEST_FIRST = new Comparator<Tweet>() {
+        @Override
+        public int compare(Tweet a, Tweet b) {
+            return Long.compare(b.id, a.id);
+        }
+    };
+
+    // Told after every change, e.g. by the adapter showing the timeline
+    public interface Listener {
+        void onTimelineChanged();
+    }
+
+    // A range of positions a merge inserted, in the positions of the merged list
+    public static class Range {
+        public final int position;
+        public final int count;
+
+        Range(int position, int count) {
+            this.position = position;
+            this.count = count;
+        }
+    }
+
+    // Outcome of a merge: what was inserted, and how many tweets already present were replaced
+    public static class MergeResult {
+        public final List<Range> inserted = new ArrayList<>();
+        public int insertedCount;
+        public int updatedCount;
+
+        public boolean isEmpty() {
+            return insertedCount == 0 && updatedCount == 0;
+        }
+    }
+
+    // Sorted descending
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private Tweet[] tweets = new Tweet[INITIAL_CAPACITY];
+    private int size;
+
+    private final Map<Long, Integer> positions = new HashMap<>();
+    // Entries of the map below this position are current, the rest may be stale
+    private int indexedUpTo;
+
+    private Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Tweet get(int position) {
+        return tweets[position];
+    }
+
+    // Position of the tweet with this id, or -1 if it is not in the timeline
+    public int indexOf(long id) {
+        Integer position = positions.get(id);
+        if (position != null && position < indexedUpTo) {
+            return position;
+        }
+        if (indexedUpTo < size) {
+            for (int i = indexedUpTo; i < size; i++) {
+                positions.put(ids[i], i);
+            }
+            indexedUpTo = size;
+            position = positions.get(id);
+        }
+        return position == null || position >= size || ids[position] != id ? -1 : position;
+    }
+
+    public Tweet find(long id) {
+        int position = indexOf(id);
+        return position < 0 ? null : tweets[position];
+    }
+
+    // Replaces the stored copy of a tweet. Returns its position, or -1 if it is not in the timeline
+    public int update(Tweet tweet) {
+        int position = indexOf(tweet.id);
+        if (position >= 0) {
+            tweets[position] = tweet;
+            notifyChanged();
+        }
+        return position;
+    }
+
+    // Swaps a tweet for one with another id, e.g. a local tweet for the server's copy of it, in
+    // a single change. The new tweet goes where its id sorts, also if the old one was not there
+    public void replace(long id, Tweet tweet) {
+        removeTweet(id);
+        mergeTweets(Collections.singletonList(tweet));
+        notifyChanged();
+    }
+
+    // Removes the tweet with this id, if it is in the timeline
+    public void remove(long id) {
+        if (removeTweet(id)) {
+            notifyChanged();
+        }
+    }
+
+    public void clear() {
+        clearTweets();
+        notifyChanged();
+    }
+
+    // Replaces the whole timeline at once, e.g. with its first page
+    public void replaceAll(List<Tweet> page) {
+        clearTweets();
+        mergeTweets(page);
+        notifyChanged();
+    }
+
+    // Drops up to count tweets from the top, e.g. rows scrolled far out of view. Local tweets,
+    // which sort above every other, are kept: they are not in the database to be read back
+    public void removeNewest(int count) {
+        int from = 0;
+        while (from < size && tweets[from].isLocal()) {
+            from++;
+        }
+        count = Math.min(count, size - from);
+        for (int i = from; i < from + count; i++) {
+            positions.remove(ids[i]);
+        }
+        System.arraycopy(ids, from + count, ids, from, size - from - count);
+        System.arraycopy(tweets, from + count, tweets, from, size - from - count);
+        Arrays.fill(tweets, size - count, size, null);
+        size -= count;
+        // Every remaining tweet below them moved up
+        indexedUpTo = Math.min(indexedUpTo, from);
+        notifyChanged();
+    }
+
+    // Drops up to count tweets from the bottom
+    public void removeOldest(int count) {
+        count = Math.min(count, size);
+        for (int i = size - count; i < size; i++) {
+            positions.remove(ids[i]);
+            tweets[i] = null;
+        }
+        size -= count;
+        indexedUpTo = Math.min(indexedUpTo, size);
+        notifyChanged();
+    }
+
+    // The timeline as an immutable list, e.g. to hand to the adapter
+    public List<Tweet> snapshot() {
+        return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(tweets, size)));
+    }
+
+    // Merges a page of tweets in timeline order, in any order and from anywhere in the timeline
+    public MergeResult merge(List<Tweet> page) {
+        MergeResult result = mergeTweets(page);
+        if (!result.isEmpty()) {
+            notifyChanged();
+        }
+        return result;
+    }
+
+    private MergeResult mergeTweets(List<Tweet> page) {
+        MergeResult result = new MergeResult();
+        if (page.isEmpty()) {
+            return result;
+        }
+        List<Tweet> sorted = new ArrayList<>(page);
+        Collections.sort(sorted, NEWEST_FIRST);
+
+        // Replace the tweets already present, and find where each new one goes in the current
+        // arrays. Ascending insertion points, since the page is sorted the same way
+        Tweet[] additions = new Tweet[sorted.size()];
+        int[] insertAt = new int[sorted.size()];
+        int added = 0;
+        long previousId = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            Tweet tweet = sorted.get(i);
+            if (i > 0 && tweet.id == previousId) {
+                // Duplicate within the page, the later copy wins
+                if (added > 0 && additions[added - 1].id == previousId) {
+                    additions[added - 1] = tweet;
+                } else {
+                    tweets[search(tweet.id)] = tweet;
+                }
+                continue;
+            }
+            previousId = tweet.id;
+            int found = search(tweet.id);
+            if (found >= 0) {
+                tweets[found] = tweet;
+                result.updatedCount++;
+            } else {
+                additions[added] = tweet;
+                insertAt[added] = -found - 1;
+                added++;
+            }
+        }
+        if (added == 0) {
+            return result;
+        }
+
+        ensureCapacity(size + added);
+        // Shift the existing tweets right by the number of additions in front of them, walking
+        // from the end so nothing is overwritten before it has moved
+        int source = size;
+        for (int a = added - 1; a >= 0; a--) {
+            int from = insertAt[a];
+            System.arraycopy(ids, from, ids, from + a + 1, source - from);
+            System.arraycopy(tweets, from, tweets, from + a + 1, source - from);
+            ids[from + a] = additions[a].id;
+            tweets[from + a] = additions[a];
+            source = from;
+        }
+        size += added;
+        indexedUpTo = Math.min(indexedUpTo, insertAt[0]);
+
+        // Additions sharing an insertion point form one contiguous range
+        int start = 0;
+        for (int a = 1; a <= added; a++) {
+            if (a == added || insertAt[a] != insertAt[start]) {
+                result.inserted.add(new Range(insertAt[start] + start, a - start));
+                start = a;
+            }
+        }
+        result.insertedCount = added;
+        return result;
+    }
+
+    private boolean removeTweet(long id) {
+        int position = indexOf(id);
+        if (position < 0) {
+            return false;
+        }
+        positions.remove(id);
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        System.arraycopy(tweets, position + 1, tweets, position, size - position - 1);
+        tweets[--size] = null;
+        // Every tweet below moved up
+        indexedUpTo = Math.min(indexedUpTo, position);
+        return true;
+    }
+
+    private void clearTweets() {
+        Arrays.fill(tweets, 0, size, null);
+        size = 0;
+        positions.clear();
+        indexedUpTo = 0;
+    }
+
+    private void notifyChanged() {
+        if (listener != null) {
+            listener.onTimelineChanged();
+        }
+    }
+
+    // Binary search over the descending ids. Returns the position of the id, or
+    // -(insertion point) - 1 if it is not present
+    private int search(long id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = ids[mid];
+            if (midId > id) {
+                low = mid + 1;
+            } else if (midId < id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            int newCapacity = Math.max(capacity, ids.length * 2);
+            ids = Arrays.copyOf(ids, newCapacity);
+            tweets = Arrays.copyOf(tweets, newCapacity);
+        }
+    }
+}
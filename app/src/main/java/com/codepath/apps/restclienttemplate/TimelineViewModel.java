@@ -0,0 +1,168 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.app.Application;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+
+import com.codepath.apps.restclienttemplate.models.Tweet;
+
+import java.util.List;
+
+/*
+ * Everything the timeline screen loads, kept across configuration changes: the tweets in memory,
+ * the pager and its cursor, the sliding window, search, and the ingest scope running their
+ * requests. A recreated TimelineActivity rebinds to it straight from memory, and only refreshes
+ * from the network when the last refresh is stale. The requests are cancelled once the screen is
+ * finished for good.
+ */
+public class TimelineViewModel extends AndroidViewModel {
+    private static final String TAG = "TimelineViewModel";
+
+    // A recreated screen refreshes on its own only if the last refresh is older than this
+    private static final long STALE_AFTER_MILLIS = 5 * DateUtils.MINUTE_IN_MILLIS;
+
+    // Told when a refresh finishes, e.g. to stop the refresh indicator of the current screen
+    public interface RefreshListener {
+        void onRefreshFinished();
+    }
+
+    private final IngestPipeline.Scope ingestScope;
+    private final TimelinePager pager;
+    private final TweetSearch search;
+    private final TimelineStore timeline = new TimelineStore();
+    private final TimelineWindow window;
+    private final TimelineSnapshot snapshot;
+
+    // Whether the first page has been shown, so a recreated screen does not read it again
+    private boolean firstPageLoaded;
+    private boolean refreshing;
+    // Elapsed realtime of the last successful refresh, 0 if there was none
+    private long lastRefreshMillis;
+    private RefreshListener refreshListener;
+
+    public TimelineViewModel(@NonNull Application application) {
+        super(application);
+        // Every request made for the timeline is parsed and persisted off the main thread, and
+        // dropped once the screen is finished
+        ingestScope = ((TwitterApp) application).getIngestPipeline().newScope();
+        // The timeline is read page by page from Room, the network only fills in what the
+        // cache is missing
+        pager = new TimelinePager(application, TwitterApp.getRestClient(application), ingestScope);
+        // Full-text search over the cached tweets, shown in the same list while active
+        search = new TweetSearch(ingestScope);
+        // Only a window of rows around the viewport is held in memory, however far the user scrolls
+        window = new TimelineWindow(timeline, pager, TimelineWindow.DEFAULT_WINDOW_SIZE);
+        // The top of the timeline as of the last sync, for a cold start to draw right away
+        snapshot = new TimelineSnapshot(application);
+    }
+
+    public IngestPipeline.Scope getIngestScope() {
+        return ingestScope;
+    }
+
+    public TimelinePager getPager() {
+        return pager;
+    }
+
+    public TweetSearch getSearch() {
+        return search;
+    }
+
+    public TimelineStore getTimeline() {
+        return timeline;
+    }
+
+    public TimelineWindow getWindow() {
+        return window;
+    }
+
+    public boolean isRefreshing() {
+        return refreshing;
+    }
+
+    // Whether the network should be asked for new tweets without the user pulling to refresh
+    public boolean isStale() {
+        return !refreshing && (lastRefreshMillis == 0
+                || SystemClock.elapsedRealtime() - lastRefreshMillis > STALE_AFTER_MILLIS);
+    }
+
+    public void setRefreshListener(RefreshListener refreshListener) {
+        this.refreshListener = refreshListener;
+    }
+
+    // Shows the first page of tweets from our database, unless it is already in memory. The
+    // snapshot of the last sync is shown until then. The pager only goes to the network if the
+    // database is empty
+    public void loadFirstPage() {
+        if (firstPageLoaded) {
+            return;
+        }
+        firstPageLoaded = true;
+        if (timeline.size() == 0) {
+            // A small sequential read, done here so the rows are there for the first frame
+            timeline.replaceAll(snapshot.read());
+        }
+        pager.loadFirstPage(new TimelinePager.Callback() {
+            @Override
+            public void onPage(List<Tweet> tweetsFromDB) {
+                Log.i(TAG, "Showing data from our database");
+                timeline.replaceAll(tweetsFromDB);
+                window.reset();
+                // New tweets still waiting in the outbox go back on top
+                ((TwitterApp) getApplication()).getOutbox().showPending();
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                Log.e(TAG, "Failed to load first page", throwable);
+                firstPageLoaded = false;
+            }
+        });
+    }
+
+    // Fetches the tweets newer than the ones we have. A refresh still running when the screen is
+    // recreated keeps going and reports to the new screen
+    public void refresh() {
+        if (refreshing) {
+            return;
+        }
+        refreshing = true;
+        pager.refresh(new TimelinePager.Callback() {
+            @Override
+            public void onPage(List<Tweet> tweetsFromDB) {
+                Log.i(TAG, "onPage! " + tweetsFromDB.size());
+                // The refreshed tweets have been saved to our Room database and read back as the
+                // first page. They are merged into the timeline, so the older pages already shown
+                // stay and only the rows that actually differ get touched
+                window.onRefreshed(tweetsFromDB);
+                snapshot.write(tweetsFromDB);
+                lastRefreshMillis = SystemClock.elapsedRealtime();
+                finishRefresh();
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                Log.e(TAG, "onFailure! ", throwable);
+                finishRefresh();
+            }
+        });
+    }
+
+    private void finishRefresh() {
+        refreshing = false;
+        if (refreshListener != null) {
+            refreshListener.onRefreshFinished();
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        // Cancel in-flight requests so their results are never applied once the screen is gone
+        ingestScope.cancel();
+        refreshListener = null;
+    }
+}
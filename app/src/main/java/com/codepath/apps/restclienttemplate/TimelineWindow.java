@@ -0,0 +1,168 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.codepath.apps.restclienttemplate.models.Tweet;
+
+import java.util.List;
+
+/*
+ * Keeps the timeline held in memory to a window of rows around the viewport, so a long scroll
+ * session does not pile up tweets, users and their text on the heap.
+ *
+ * Scrolling down drops the rows far above the viewport; they come back from the Room cache, a
+ * page at a time, when the user scrolls up to the top of the window. Scrolling up drops the rows
+ * far below, and the pager is moved back so the endless scroll listener reads them again. Rows
+ * are only ever added or removed outside of the viewport, so the visible rows do not move.
+ *
+ * Retained with the timeline across configuration changes, each new screen attaches its own
+ * adapter and layout manager.
+ */
+public class TimelineWindow extends RecyclerView.OnScrollListener {
+    private static final String TAG = "TimelineWindow";
+
+    public static final int DEFAULT_WINDOW_SIZE = 8 * TimelinePager.PAGE_SIZE;
+    // Rows are dropped a page at a time at least, so a window edge is not trimmed on every frame
+    private static final int MIN_DROP = TimelinePager.PAGE_SIZE;
+
+    private final TimelineStore timeline;
+    private final TimelinePager pager;
+    private TweetsAdapter adapter;
+    private LinearLayoutManager layoutManager;
+    private final int windowSize;
+
+    // Whether rows above the window were dropped and can be read back from the cache
+    private boolean hasNewer;
+    private boolean loadingNewer;
+    // Bumped whenever an edge of the window is dropped, so pages requested for the old edge are
+    // not merged next to a hole
+    private int headGeneration;
+    private int tailGeneration;
+
+    public TimelineWindow(TimelineStore timeline, TimelinePager pager, int windowSize) {
+        this.timeline = timeline;
+        this.pager = pager;
+        this.windowSize = Math.max(windowSize, 4 * MIN_DROP);
+    }
+
+    // Follows the scrolling of the list showing the timeline, added as its scroll listener
+    public void attach(TweetsAdapter adapter, LinearLayoutManager layoutManager) {
+        this.adapter = adapter;
+        this.layoutManager = layoutManager;
+    }
+
+    // The screen is going away, do not hold on to its views
+    public void detach() {
+        this.adapter = null;
+        this.layoutManager = null;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0 || adapter == null || adapter.isSearching()) {
+            return;
+        }
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+        // Rows kept on each side of the viewport
+        int margin = windowSize / 2;
+        if (dy > 0) {
+            int excess = first - margin;
+            if (excess >= MIN_DROP) {
+                // Local tweets stay, see TimelineStore.removeNewest
+                Log.i(TAG, "dropping " + excess + " rows above the window");
+                timeline.removeNewest(excess);
+                hasNewer = true;
+                headGeneration++;
+            }
+        } else {
+            int excess = timeline.size() - 1 - last - margin;
+            if (excess >= MIN_DROP) {
+                Log.i(TAG, "dropping " + excess + " rows below the window");
+                timeline.removeOldest(excess);
+                pager.seekTo(timeline.get(timeline.size() - 1));
+                tailGeneration++;
+            }
+            if (hasNewer && first < MIN_DROP) {
+                loadNewer();
+            }
+        }
+    }
+
+    // Pass the tail generation along with a request for older tweets, see isCurrentTail
+    public int getTailGeneration() {
+        return tailGeneration;
+    }
+
+    // False if the rows a page of older tweets was requested after have been dropped since
+    public boolean isCurrentTail(int generation) {
+        return generation == tailGeneration;
+    }
+
+    // The newest page was read again after a refresh. It is merged only if the window reaches
+    // the top of the timeline; otherwise the rows above come back from the cache as the user
+    // scrolls up, and the pager is sent back to the bottom of the window
+    public void onRefreshed(List<Tweet> newest) {
+        if (!hasNewer) {
+            timeline.merge(newest);
+        } else if (timeline.size() > 0) {
+            pager.seekTo(timeline.get(timeline.size() - 1));
+            tailGeneration++;
+        }
+    }
+
+    // A local tweet was published. The server's copy takes its place only if the window reaches
+    // the top of the timeline, otherwise it would sit above the rows that were dropped; it is
+    // read back from the cache with them instead
+    public void onPublished(long localId, Tweet tweet) {
+        if (!hasNewer) {
+            timeline.replace(localId, tweet);
+        } else {
+            timeline.remove(localId);
+        }
+    }
+
+    // The timeline was replaced, e.g. with its first page
+    public void reset() {
+        hasNewer = false;
+        loadingNewer = false;
+        headGeneration++;
+        tailGeneration++;
+    }
+
+    private void loadNewer() {
+        if (loadingNewer || timeline.size() == 0) {
+            return;
+        }
+        loadingNewer = true;
+        final int generation = headGeneration;
+        pager.loadNewerPage(timeline.get(0), new TimelinePager.Callback() {
+            @Override
+            public void onPage(List<Tweet> tweets) {
+                loadingNewer = false;
+                if (generation != headGeneration) {
+                    // The top of the window moved while this page was read
+                    return;
+                }
+                if (tweets.size() < TimelinePager.PAGE_SIZE) {
+                    // Back at the top of the cache
+                    hasNewer = false;
+                }
+                // Inserted above the viewport, the visible rows stay where they are
+                timeline.merge(tweets);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                loadingNewer = false;
+            }
+        });
+    }
+}
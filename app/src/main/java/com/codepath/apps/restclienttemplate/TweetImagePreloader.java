@@ -0,0 +1,108 @@
+package com.codepath.apps.restclienttemplate;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.target.Target;
+import com.codepath.apps.restclienttemplate.models.Tweet;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/*
+ * Warms Glide's memory and disk caches with the avatars and media of the rows about to scroll
+ * into view, so they are ready by the time the rows are bound instead of popping in during a
+ * fling. Images are requested through the adapter's own request builders and at the laid out
+ * view sizes, so each preload produces exactly the cache entry the bind will look up.
+ *
+ * The number of rows preloaded follows the scroll velocity, and everything still in flight is
+ * cancelled when the user reverses direction.
+ */
+public class TweetImagePreloader extends RecyclerView.OnScrollListener {
+
+    // Rows preloaded ahead of the last visible one, when scrolling slowly and at full speed
+    private static final int MIN_ROWS_AHEAD = 3;
+    private static final int MAX_ROWS_AHEAD = 12;
+    // Frames of scrolling at the current speed the preloads should stay ahead of
+    private static final int LOOKAHEAD_FRAMES = 30;
+    // Preloads tracked for cancellation, two per row at most
+    private static final int MAX_TARGETS = 2 * MAX_ROWS_AHEAD;
+
+    private final TweetsAdapter adapter;
+    private final LinearLayoutManager layoutManager;
+    private final Deque<Target<?>> targets = new ArrayDeque<>();
+
+    // 1 when scrolling towards older tweets, -1 towards newer ones, 0 before the first scroll
+    private int direction;
+    // Furthest position preloaded in the current direction
+    private int preloadedEnd;
+
+    public TweetImagePreloader(TweetsAdapter adapter, LinearLayoutManager layoutManager) {
+        this.adapter = adapter;
+        this.layoutManager = layoutManager;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0 || adapter.avatarWidth == 0) {
+            // Nothing scrolled, or no row has been laid out yet so the target sizes are unknown
+            return;
+        }
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+        int newDirection = dy > 0 ? 1 : -1;
+        int edge = newDirection > 0 ? last : first;
+        // Start over after a reversal, or when the list changed under the preloaded range
+        if (newDirection != direction || Math.abs(preloadedEnd - edge) > MAX_ROWS_AHEAD) {
+            cancelAll();
+            direction = newDirection;
+            preloadedEnd = edge;
+        } else if ((edge - preloadedEnd) * direction > 0) {
+            // Scrolled past everything preloaded, rows already on screen are bound anyway
+            preloadedEnd = edge;
+        }
+
+        int itemCount = adapter.getItemCount();
+        int end = edge + direction * rowsAhead(recyclerView, dy, last - first + 1);
+        end = Math.max(0, Math.min(end, itemCount - 1));
+        for (int position = preloadedEnd + direction; (end - position) * direction >= 0; position += direction) {
+            preload(adapter.getItem(position));
+            preloadedEnd = position;
+        }
+    }
+
+    // Cancels every preload that is still in flight
+    public void cancelAll() {
+        while (!targets.isEmpty()) {
+            Glide.with(adapter.context).clear(targets.poll());
+        }
+    }
+
+    // Converts the distance the current velocity covers in LOOKAHEAD_FRAMES into rows
+    private int rowsAhead(RecyclerView recyclerView, int dy, int visibleRows) {
+        int rowHeight = Math.max(1, recyclerView.getHeight() / visibleRows);
+        int rows = MIN_ROWS_AHEAD + Math.abs(dy) * LOOKAHEAD_FRAMES / rowHeight;
+        return Math.min(rows, MAX_ROWS_AHEAD);
+    }
+
+    private void preload(Tweet tweet) {
+        track(adapter.avatarRequest(tweet).preload(adapter.avatarWidth, adapter.avatarHeight));
+        if (!tweet.mediaUrl.isEmpty() && adapter.mediaWidth > 0) {
+            // The request carries the row's exact size as an override
+            track(adapter.mediaRequest(tweet).preload());
+        }
+    }
+
+    // Finished preloads release themselves, so dropping the oldest ones only forgets them
+    private void track(Target<?> target) {
+        targets.add(target);
+        while (targets.size() > MAX_TARGETS) {
+            targets.poll();
+        }
+    }
+}
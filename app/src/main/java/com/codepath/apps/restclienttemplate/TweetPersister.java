@@ -0,0 +1,195 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.codepath.apps.restclienttemplate.models.OutboxDao;
+import com.codepath.apps.restclienttemplate.models.PendingMutation;
+import com.codepath.apps.restclienttemplate.models.Tweet;
+import com.codepath.apps.restclienttemplate.models.TweetDao;
+import com.codepath.apps.restclienttemplate.models.User;
+import com.codepath.apps.restclienttemplate.models.UserIdentityMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/*
+ * Write-behind persister for parsed tweets and their users, whatever the source (refresh,
+ * load-more, gap fills, like responses, compose). Pages are queued without blocking the caller
+ * and written by the writer thread; every page queued while a flush is pending joins the same
+ * batch (group commit). Each batch:
+ *
+ *   - keeps one User per id and one Tweet per id, the most recently parsed copy winning
+ *   - upserts (insert, then update the rows that already existed) instead of REPLACE, which
+ *     would delete and reinsert User rows that Tweet rows point to
+ *   - re-applies the likes and unlikes still waiting in the Outbox, so a page fetched before
+ *     the server has them does not undo what the user sees
+ *   - runs in a single transaction
+ *
+ * flush() must be called on the writer thread before any read that needs to see queued pages.
+ */
+public class TweetPersister {
+    private static final String TAG = "TweetPersister";
+
+    private final MyDatabase database;
+    private final TweetDao tweetDao;
+    private final OutboxDao outboxDao;
+    private final Executor writer;
+
+    private final Object lock = new Object();
+    private List<Tweet> pending = new ArrayList<>();
+    private boolean flushScheduled;
+
+    // Metrics, only written on the writer thread
+    private volatile long flushCount;
+    private volatile long rowsWritten;
+    private volatile long totalFlushMillis;
+    private volatile long lastFlushMillis;
+    private volatile int lastFlushRows;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public TweetPersister(MyDatabase database, Executor writer) {
+        this.database = database;
+        this.tweetDao = database.tweetDao();
+        this.outboxDao = database.outboxDao();
+        this.writer = writer;
+    }
+
+    // Queues a page of tweets, and their users, to be written by the writer thread
+    public void enqueue(List<Tweet> tweets) {
+        if (tweets.isEmpty()) {
+            return;
+        }
+        synchronized (lock) {
+            pending.addAll(tweets);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        writer.execute(flushTask);
+    }
+
+    // Writes everything queued so far in one transaction. Runs on the writer thread
+    public void flush() {
+        final List<Tweet> batch;
+        synchronized (lock) {
+            batch = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final Map<Long, User> users = new LinkedHashMap<>();
+        final Map<Long, Tweet> tweets = new LinkedHashMap<>();
+        for (Tweet tweet : batch) {
+            if (tweet.user != null) {
+                User user = UserIdentityMap.getInstance().resolve(tweet.user);
+                users.put(user.id, user);
+            }
+            tweets.put(tweet.id, tweet);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                // Users first, tweets reference them
+                upsertUsers(new ArrayList<>(users.values()));
+                upsertTweets(new ArrayList<>(tweets.values()));
+                reapplyPendingLikes(tweets);
+            }
+        });
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        int rows = users.size() + tweets.size();
+        flushCount++;
+        rowsWritten += rows;
+        totalFlushMillis += elapsed;
+        lastFlushMillis = elapsed;
+        lastFlushRows = rows;
+        Log.d(TAG, "Flushed " + tweets.size() + " tweets and " + users.size() + " users in " + elapsed
+                + "ms (" + getRowsPerSecond() + " rows/s overall)");
+    }
+
+    private void upsertUsers(List<User> users) {
+        long[] rowIds = tweetDao.insertUsersIfAbsent(users);
+        List<User> existing = new ArrayList<>();
+        for (int i = 0; i < rowIds.length; i++) {
+            if (rowIds[i] == -1) {
+                existing.add(users.get(i));
+            }
+        }
+        if (!existing.isEmpty()) {
+            tweetDao.updateUsers(existing);
+        }
+    }
+
+    private void upsertTweets(List<Tweet> tweets) {
+        long[] rowIds = tweetDao.insertTweetsIfAbsent(tweets);
+        List<Tweet> existing = new ArrayList<>();
+        for (int i = 0; i < rowIds.length; i++) {
+            if (rowIds[i] == -1) {
+                existing.add(tweets.get(i));
+            }
+        }
+        if (!existing.isEmpty()) {
+            tweetDao.updateTweets(existing);
+        }
+    }
+
+    // The server's copy of a tweet liked or unliked since then has the old state, put the state
+    // the user chose back on top of it. The outbox is small, so it is read whole
+    private void reapplyPendingLikes(Map<Long, Tweet> tweets) {
+        Map<Long, Boolean> liked = new HashMap<>();
+        for (PendingMutation mutation : outboxDao.pendingLikeToggles()) {
+            if (tweets.containsKey(mutation.tweetId)) {
+                // The latest toggle wins
+                liked.put(mutation.tweetId, mutation.type == PendingMutation.TYPE_LIKE);
+            }
+        }
+        for (Map.Entry<Long, Boolean> entry : liked.entrySet()) {
+            boolean pendingLiked = entry.getValue();
+            if (tweets.get(entry.getKey()).liked != pendingLiked) {
+                tweetDao.applyLike(entry.getKey(), pendingLiked, pendingLiked ? 1 : -1);
+            }
+        }
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    // Rows written per second of time spent inside flush transactions
+    public long getRowsPerSecond() {
+        return totalFlushMillis == 0 ? rowsWritten * 1000 : rowsWritten * 1000 / totalFlushMillis;
+    }
+
+    public long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    public int getLastFlushRows() {
+        return lastFlushRows;
+    }
+
+    public long getAverageFlushMillis() {
+        return flushCount == 0 ? 0 : totalFlushMillis / flushCount;
+    }
+}
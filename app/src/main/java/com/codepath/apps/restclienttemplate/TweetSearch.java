@@ -0,0 +1,99 @@
+package com.codepath.apps.restclienttemplate;
+
+import com.codepath.apps.restclienttemplate.models.Tweet;
+import com.codepath.apps.restclienttemplate.models.TweetDao;
+import com.codepath.apps.restclienttemplate.models.TweetWithUser;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * Pages through full-text search results over the cached tweets. The user's text is turned into
+ * an FTS MATCH expression, and each page is read on the writer thread so it sees every queued
+ * write. Results of a search that has since been replaced or cleared are dropped.
+ */
+public class TweetSearch {
+
+    public static final int PAGE_SIZE = 25;
+
+    private final IngestPipeline.Scope ingestScope;
+
+    private String matchQuery;
+    private int offset;
+    // Bumped on every new search, so pages of an older search are recognized as stale
+    private int generation;
+
+    public TweetSearch(IngestPipeline.Scope ingestScope) {
+        this.ingestScope = ingestScope;
+    }
+
+    public boolean isActive() {
+        return matchQuery != null;
+    }
+
+    // Starts a new search and loads its first page. Blank text yields an empty page
+    public void search(String text, TimelinePager.Callback callback) {
+        generation++;
+        offset = 0;
+        matchQuery = toMatchQuery(text);
+        if (matchQuery == null) {
+            callback.onPage(Collections.<Tweet>emptyList());
+            return;
+        }
+        loadNextPage(callback);
+    }
+
+    public void loadNextPage(final TimelinePager.Callback callback) {
+        if (matchQuery == null) {
+            return;
+        }
+        final String query = matchQuery;
+        final int pageOffset = offset;
+        final int pageGeneration = generation;
+        ingestScope.runOnWriter(new IngestPipeline.DatabaseTask<List<Tweet>>() {
+            @Override
+            public List<Tweet> run(TweetDao tweetDao) {
+                List<TweetWithUser> tweetWithUsers = tweetDao.search(query, PAGE_SIZE, pageOffset);
+                return TweetWithUser.getTweetList(tweetWithUsers);
+            }
+        }, new IngestPipeline.Result<List<Tweet>>() {
+            @Override
+            public void onResult(List<Tweet> tweets) {
+                if (pageGeneration != generation) {
+                    return;
+                }
+                offset += tweets.size();
+                callback.onPage(tweets);
+            }
+        });
+    }
+
+    public void clear() {
+        generation++;
+        matchQuery = null;
+        offset = 0;
+    }
+
+    // Every word of the text must match, the last one as a prefix so results show while typing.
+    // Words are quoted so FTS operators typed by the user are searched for literally
+    static String toMatchQuery(String text) {
+        String[] words = text.trim().toLowerCase(Locale.ROOT).split("\\s+");
+        StringBuilder query = new StringBuilder();
+        for (String word : words) {
+            String cleaned = word.replace("\"", "");
+            if (cleaned.isEmpty()) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append("\" ");
+            }
+            query.append('"').append(cleaned);
+        }
+        if (query.length() == 0) {
+            return null;
+        }
+        // Close the last word as a prefix token, e.g. "android" "dev*"
+        return query.append("*\"").toString();
+    }
+}
@@ -0,0 +1,68 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.codepath.apps.restclienttemplate.models.Tweet;
+import com.codepath.asynchttpclient.AbsCallback;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.Headers;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/*
+ * Response handler that builds Tweet and User objects straight off the OkHttp response body
+ * with a pull-based JsonReader, instead of first materializing the whole payload as a
+ * JSONArray/JSONObject tree like JsonHttpResponseHandler does. Handles both a timeline
+ * array and a single tweet object.
+ *
+ * The response is handed to an IngestPipeline scope, which parses (and optionally persists)
+ * it in the background; onSuccess and onFailure are then called on the main thread with
+ * ready-to-bind models, unless the scope has been cancelled in the meantime.
+ */
+public abstract class TweetStreamHandler extends AbsCallback {
+    private final IngestPipeline.Scope scope;
+    private final boolean persist;
+
+    public TweetStreamHandler(IngestPipeline.Scope scope, boolean persist) {
+        this.scope = scope;
+        this.persist = persist;
+    }
+
+    IngestPipeline.Scope getScope() {
+        return scope;
+    }
+
+    boolean persists() {
+        return persist;
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) {
+        scope.ingest(call, response, persist, this);
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+        scope.fail(call, e, this);
+    }
+
+    // Reads either a timeline (array of tweets) or a single tweet from the body in one pass
+    static List<Tweet> parse(ResponseBody body) throws IOException {
+        try (JsonReader reader = new JsonReader(body.charStream())) {
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                return Tweet.fromJsonReaderArray(reader);
+            }
+            return Collections.singletonList(Tweet.fromJsonReader(reader));
+        }
+    }
+
+    public abstract void onSuccess(int statusCode, Headers headers, List<Tweet> tweets);
+
+    public abstract void onFailure(int statusCode, Headers headers, String response, Throwable throwable);
+}
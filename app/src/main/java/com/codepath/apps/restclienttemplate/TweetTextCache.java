@@ -0,0 +1,173 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.URLSpan;
+
+import androidx.collection.LruCache;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.util.ObjectsCompat;
+
+import com.codepath.apps.restclienttemplate.models.Tweet;
+import com.codepath.apps.restclienttemplate.models.TweetEntities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Styled, fully laid out tweet bodies, built on a background thread before their rows are
+ * bound. Links, mentions and hashtags come from the entities extracted at ingest, so nothing
+ * scans the text at bind time, and the measured PrecomputedTextCompat lets binding skip the text
+ * layout on the main thread.
+ *
+ * Text is measured with the metrics of the body TextView, which are only known once the first
+ * row has been created; until then nothing is precomputed.
+ */
+public class TweetTextCache {
+
+    private static final int MAX_ENTRIES = 300;
+
+    private static final String PROFILE_URL = "https://twitter.com/";
+    private static final String HASHTAG_URL = "https://twitter.com/hashtag/";
+
+    // One thread shared by every screen, layout is CPU bound and must not hold up parsing
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // Entities that come later in the text first, so replacing one keeps the others' offsets
+    private static final Comparator<TweetEntities.Entity> LAST_FIRST = new Comparator<TweetEntities.Entity>() {
+        @Override
+        public int compare(TweetEntities.Entity a, TweetEntities.Entity b) {
+            return b.start - a.start;
+        }
+    };
+
+    // A laid out body and what it was built from. The text of a tweet does not change, but its
+    // entities can arrive later, e.g. for a copy cached before they were stored
+    private static class Entry {
+        final String body;
+        final String entities;
+        final PrecomputedTextCompat text;
+
+        Entry(Tweet tweet, PrecomputedTextCompat text) {
+            this.body = tweet.body;
+            this.entities = tweet.entities;
+            this.text = text;
+        }
+
+        boolean isFor(Tweet tweet) {
+            return ObjectsCompat.equals(body, tweet.body) && ObjectsCompat.equals(entities, tweet.entities);
+        }
+    }
+
+    // Keyed by tweet id
+    private final LruCache<Long, Entry> cache = new LruCache<>(MAX_ENTRIES);
+    private volatile PrecomputedTextCompat.Params params;
+
+    public boolean hasParams() {
+        return params != null;
+    }
+
+    // Sets the metrics of the TextView the text will be shown in
+    public void setParams(PrecomputedTextCompat.Params params) {
+        if (!params.equals(this.params)) {
+            this.params = params;
+            cache.evictAll();
+        }
+    }
+
+    // The precomputed body of the tweet, or null if it is not ready yet
+    public PrecomputedTextCompat get(Tweet tweet) {
+        Entry entry = cache.get(tweet.id);
+        return entry != null && entry.isFor(tweet) ? entry.text : null;
+    }
+
+    // Lays out the bodies of the tweets not cached yet, in list order, on the background thread
+    public void precompute(List<Tweet> tweets) {
+        final PrecomputedTextCompat.Params params = this.params;
+        if (params == null) {
+            return;
+        }
+        final List<Tweet> missing = new ArrayList<>();
+        for (Tweet tweet : tweets) {
+            if (get(tweet) == null) {
+                missing.add(tweet);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Tweet tweet : missing) {
+                    if (params != TweetTextCache.this.params) {
+                        // Laid out for a TextView that is gone
+                        return;
+                    }
+                    if (get(tweet) == null) {
+                        cache.put(tweet.id, new Entry(tweet, PrecomputedTextCompat.create(buildText(tweet), params)));
+                    }
+                }
+            }
+        });
+    }
+
+    // For a row bound before its text was precomputed: the layout still happens on the
+    // background thread, and the TextView waits for it only when it is measured
+    public Future<PrecomputedTextCompat> future(Tweet tweet) {
+        return PrecomputedTextCompat.getTextFuture(buildText(tweet), params, EXECUTOR);
+    }
+
+    // Tweet body with its urls expanded to their display form and linked, mentions and hashtags
+    // linked, and the link to the attached photo removed
+    public static Spannable buildText(Tweet tweet) {
+        String body = tweet.body == null ? "" : tweet.body;
+        SpannableStringBuilder text = new SpannableStringBuilder(body);
+        TweetEntities tweetEntities = tweet.getBodyEntities();
+        if (tweetEntities == null) {
+            return text;
+        }
+        List<TweetEntities.Entity> entities = new ArrayList<>(tweetEntities.getEntities());
+        Collections.sort(entities, LAST_FIRST);
+        for (TweetEntities.Entity entity : entities) {
+            int start = charOffset(body, entity.start);
+            int end = charOffset(body, entity.end);
+            if (start < 0 || end < start) {
+                continue;
+            }
+            switch (entity.type) {
+                case TweetEntities.TYPE_MEDIA:
+                    // Drop the space in front of the link as well
+                    text.delete(start > 0 && body.charAt(start - 1) == ' ' ? start - 1 : start, end);
+                    break;
+                case TweetEntities.TYPE_URL:
+                    String shown = entity.display == null ? entity.value : entity.display;
+                    text.replace(start, end, shown);
+                    text.setSpan(new URLSpan(entity.value), start, start + shown.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    break;
+                case TweetEntities.TYPE_MENTION:
+                    text.setSpan(new URLSpan(PROFILE_URL + entity.value), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    break;
+                case TweetEntities.TYPE_HASHTAG:
+                    text.setSpan(new URLSpan(HASHTAG_URL + entity.value), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    break;
+            }
+        }
+        return text;
+    }
+
+    // Twitter counts entity offsets in code points, Java strings in chars. -1 if out of range
+    private static int charOffset(String body, int codePoints) {
+        try {
+            return body.offsetByCodePoints(0, codePoints);
+        } catch (IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+}
@@ -1,38 +1,51 @@
 package com.codepath.apps.restclienttemplate;
 
 import android.content.Context;
+import android.graphics.Outline;
+import android.graphics.drawable.Drawable;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Layout;
 import android.text.format.DateUtils;
-import android.util.Log;
+import android.text.method.LinkMovementMethod;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewOutlineProvider;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.widget.AppCompatTextView;
 import androidx.core.content.ContextCompat;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.util.ObjectsCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
-import com.bumptech.glide.load.MultiTransformation;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.load.DecodeFormat;
 import com.bumptech.glide.load.resource.bitmap.CenterCrop;
 import com.bumptech.glide.load.resource.bitmap.RoundedCorners;
 import com.bumptech.glide.request.RequestOptions;
+import com.codepath.apps.restclienttemplate.models.MediaSizes;
 import com.codepath.apps.restclienttemplate.models.Tweet;
-import com.codepath.asynchttpclient.callback.JsonHttpResponseHandler;
+import com.codepath.apps.restclienttemplate.models.User;
 
-import org.json.JSONException;
 import org.w3c.dom.Text;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
-
-import jp.wasabeef.glide.transformations.RoundedCornersTransformation;
-import okhttp3.Headers;
+import java.util.Set;
 
 // Second step is to extend the RecyclerView adapter but parameterize it with the ViewHolder we
 // defined in the first step
@@ -41,14 +54,164 @@ public class TweetsAdapter extends RecyclerView.Adapter<TweetsAdapter.ViewHolder
     // Third step is assisted by Android as the method headers required by extending in 2nd step are
     // generated and you just need to fill them out and create a constructor for the adapter
     Context context;
+    Outbox outbox;
+    IngestPipeline.Scope ingestScope;
+    // Computes the difference between the displayed list and every newly submitted list on a
+    // background thread, then dispatches only the minimal inserts, removes and changes
+    AsyncListDiffer<Tweet> differ;
+    // Latest list handed to the differ. Mutations build on it rather than on the displayed list,
+    // which may still lag behind while a diff is being computed
     List<Tweet> tweets;
-    TwitterClient client;
+    // The timeline, sorted and deduplicated by tweet id. It outlives this adapter, which shows
+    // every change made to it while attached
+    final TimelineStore timeline;
+    final TimelineStore.Listener timelineListener = new TimelineStore.Listener() {
+        @Override
+        public void onTimelineChanged() {
+            if (searchResults == null) {
+                submit(timeline.snapshot());
+            }
+        }
+    };
+    // Shown instead of the timeline while searching, null otherwise
+    List<Tweet> searchResults;
+    // Size of the image views once a row has been laid out, 0 until then. The media height is
+    // set per row from the photo's aspect ratio, see mediaHeightFor
+    int avatarWidth;
+    int avatarHeight;
+    int mediaWidth;
+    // Bounds of the media height, and the height used when the aspect ratio is unknown
+    final int minMediaHeight;
+    final int maxMediaHeight;
+    final int defaultMediaHeight;
+    // Rounds the corners of the photos by clipping their views
+    final ViewOutlineProvider mediaOutline;
+    // Metered networks get photo variants that may be upscaled a little, see MediaSizes.select
+    boolean meteredNetwork;
+    // Minute ticker for the relative timestamps
+    RecyclerView recyclerView;
+    final Handler mainHandler = new Handler(Looper.getMainLooper());
+    boolean ticking;
+    final Runnable ticker = new Runnable() {
+        @Override
+        public void run() {
+            refreshVisibleTimestamps();
+            mainHandler.postDelayed(this, RelativeTimeFormatter.millisUntilNextMinute(System.currentTimeMillis()));
+        }
+    };
+    // Bodies laid out ahead of binding
+    final TweetTextCache textCache = new TweetTextCache();
+    // Tweets whose photo the user tapped to see in full resolution
+    final Set<Long> fullResolutionMedia = new HashSet<>();
+
+    // Rows are the same item when they hold the same tweet, and unchanged when everything we
+    // display for that tweet is equal
+    private static final DiffUtil.ItemCallback<Tweet> DIFF_CALLBACK = new DiffUtil.ItemCallback<Tweet>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Tweet oldTweet, @NonNull Tweet newTweet) {
+            return ObjectsCompat.equals(oldTweet.id, newTweet.id);
+        }
 
-    // Pass context and list of tweets into adapter
-    public TweetsAdapter(Context context, List<Tweet> tweets) {
+        @Override
+        public boolean areContentsTheSame(@NonNull Tweet oldTweet, @NonNull Tweet newTweet) {
+            return oldTweet.liked == newTweet.liked
+                    && oldTweet.likeCount == newTweet.likeCount
+                    && ObjectsCompat.equals(oldTweet.body, newTweet.body)
+                    && ObjectsCompat.equals(oldTweet.entities, newTweet.entities)
+                    && ObjectsCompat.equals(oldTweet.createdAt, newTweet.createdAt)
+                    && oldTweet.sendState == newTweet.sendState
+                    && ObjectsCompat.equals(oldTweet.mediaUrl, newTweet.mediaUrl)
+                    && ObjectsCompat.equals(oldTweet.mediaSizes, newTweet.mediaSizes)
+                    && sameProfile(oldTweet.user, newTweet.user);
+        }
+
+        // Which parts of the row changed, so only those views are rebound. The body, its entity
+        // spans and the media (photo or its variant sizes) have no payload, a change there
+        // rebinds the whole row
+        @Nullable
+        @Override
+        public Object getChangePayload(@NonNull Tweet oldTweet, @NonNull Tweet newTweet) {
+            if (!ObjectsCompat.equals(oldTweet.body, newTweet.body)
+                    || !ObjectsCompat.equals(oldTweet.entities, newTweet.entities)
+                    || !ObjectsCompat.equals(oldTweet.mediaUrl, newTweet.mediaUrl)
+                    || !ObjectsCompat.equals(oldTweet.mediaSizes, newTweet.mediaSizes)) {
+                return null;
+            }
+            int changes = 0;
+            if (oldTweet.liked != newTweet.liked) {
+                changes |= PAYLOAD_LIKE_STATE;
+            }
+            if (oldTweet.likeCount != newTweet.likeCount) {
+                changes |= PAYLOAD_COUNTS;
+            }
+            if (!ObjectsCompat.equals(oldTweet.createdAt, newTweet.createdAt)
+                    || oldTweet.sendState != newTweet.sendState) {
+                changes |= PAYLOAD_TIMESTAMP;
+            }
+            if (!sameProfile(oldTweet.user, newTweet.user)) {
+                changes |= PAYLOAD_USER_PROFILE;
+            }
+            return changes;
+        }
+
+        private boolean sameProfile(User oldUser, User newUser) {
+            return ObjectsCompat.equals(oldUser.name, newUser.name)
+                    && ObjectsCompat.equals(oldUser.screenName, newUser.screenName)
+                    && ObjectsCompat.equals(oldUser.publicImageUrl, newUser.publicImageUrl);
+        }
+    };
+
+    private static final int MIN_MEDIA_HEIGHT_DP = 100;
+    private static final int MAX_MEDIA_HEIGHT_DP = 300;
+    private static final int DEFAULT_MEDIA_HEIGHT_DP = 150;
+    private static final int MEDIA_CORNER_RADIUS_DP = 4;
+    private static final float METERED_COVERAGE = 0.75f;
+
+    // Partial bind payloads, flags of the parts of a row that changed. Small Integers are cached,
+    // so passing them as payloads does not allocate
+    static final int PAYLOAD_LIKE_STATE = 1;
+    static final int PAYLOAD_COUNTS = 1 << 1;
+    static final int PAYLOAD_TIMESTAMP = 1 << 2;
+    static final int PAYLOAD_USER_PROFILE = 1 << 3;
+
+    // Pass context, the owning screen's ingest scope and the timeline to show into adapter
+    public TweetsAdapter(Context context, IngestPipeline.Scope ingestScope, TimelineStore timeline) {
         this.context = context;
-        this.tweets = tweets;
-        this.client = TwitterApp.getRestClient(context);
+        this.outbox = ((TwitterApp) context.getApplicationContext()).getOutbox();
+        this.ingestScope = ingestScope;
+        this.differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+        setHasStableIds(true);
+        this.tweets = Collections.emptyList();
+        this.timeline = timeline;
+        float density = context.getResources().getDisplayMetrics().density;
+        this.minMediaHeight = Math.round(MIN_MEDIA_HEIGHT_DP * density);
+        this.maxMediaHeight = Math.round(MAX_MEDIA_HEIGHT_DP * density);
+        this.defaultMediaHeight = Math.round(DEFAULT_MEDIA_HEIGHT_DP * density);
+        final float mediaCornerRadius = MEDIA_CORNER_RADIUS_DP * density;
+        this.mediaOutline = new ViewOutlineProvider() {
+            @Override
+            public void getOutline(View view, Outline outline) {
+                outline.setRoundRect(0, 0, view.getWidth(), view.getHeight(), mediaCornerRadius);
+            }
+        };
+    }
+
+    // Starts showing the timeline, at once if it already holds tweets, e.g. after a rotation.
+    // A first list is not diffed, so its rows are there for the layout that restores the scroll
+    // position
+    public void attach() {
+        timeline.setListener(timelineListener);
+        if (timeline.size() > 0) {
+            submit(timeline.snapshot());
+        }
+    }
+
+    // Stops following the timeline, e.g. when the screen is destroyed, unless a newer adapter
+    // already took over
+    public void detach() {
+        if (timeline.getListener() == timelineListener) {
+            timeline.setListener(null);
+        }
     }
 
     // For each row, inflate the layout
@@ -57,100 +220,245 @@ public class TweetsAdapter extends RecyclerView.Adapter<TweetsAdapter.ViewHolder
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(context).inflate(R.layout.item_tweet, parent, false);
         // This ViewHolder is the one we just defined below in the first step
-        return new ViewHolder(view);
+        ViewHolder holder = new ViewHolder(view);
+        if (!textCache.hasParams()) {
+            // The first row tells us how bodies are measured, start laying out the list's text
+            textCache.setParams(TextViewCompat.getTextMetricsParams(holder.tvBody));
+            textCache.precompute(tweets);
+        }
+        return holder;
     }
 
     // Bind values based on the position of the elements
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
         // Get the data at position
-        Tweet tweet = tweets.get(position);
+        Tweet tweet = differ.getCurrentList().get(position);
         // Bind the tweet with passed view holder. Made cleaner by having method in View Holder
         // class take care of this binding
         holder.bind(tweet);
     }
 
+    // Partial bind: rows only rebind what the payloads say changed
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        int changes = 0;
+        for (Object payload : payloads) {
+            if (!(payload instanceof Integer)) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+            changes |= (Integer) payload;
+        }
+        Tweet tweet = differ.getCurrentList().get(position);
+        if ((changes & PAYLOAD_LIKE_STATE) != 0) {
+            holder.bindLikeState(tweet);
+        }
+        if ((changes & PAYLOAD_COUNTS) != 0) {
+            holder.bindCounts(tweet);
+        }
+        if ((changes & PAYLOAD_TIMESTAMP) != 0) {
+            holder.bindTime(tweet, System.currentTimeMillis());
+        }
+        if ((changes & PAYLOAD_USER_PROFILE) != 0) {
+            holder.bindUser(tweet);
+        }
+    }
+
+    // Rows are keyed by tweet id, so RecyclerView can keep a tweet's row across list changes
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).id;
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        stopTicking();
+        this.recyclerView = null;
+    }
+
+    // Refreshes the timestamps of the visible rows now and then on every whole minute, e.g.
+    // while the screen is started
+    public void startTicking() {
+        if (!ticking) {
+            ticking = true;
+            mainHandler.post(ticker);
+        }
+    }
+
+    public void stopTicking() {
+        ticking = false;
+        mainHandler.removeCallbacks(ticker);
+    }
+
     @Override
     public int getItemCount() {
-        return tweets.size();
+        return differ.getCurrentList().size();
+    }
+
+    // The latest list of tweets, including changes whose diff is still being computed
+    public List<Tweet> getTweets() {
+        return tweets;
     }
 
     // Clear all items in the Recycler View
     public void clear() {
-        tweets.clear();
-        notifyDataSetChanged();
+        searchResults = null;
+        timeline.clear();
     }
 
-    // Add a list of items
-    public void addAll(List<Tweet> tweetList) {
-        tweets.addAll(tweetList);
-        notifyDataSetChanged();
+    // Replace the timeline, e.g. with the first page read from the database. Rows for tweets
+    // present in both lists are kept and only rebound if their content changed
+    public void replaceAll(List<Tweet> tweetList) {
+        timeline.replaceAll(tweetList);
     }
 
-    private static final int SECOND_MILLIS = 1000;
-    private static final int MINUTE_MILLIS = 60 * SECOND_MILLIS;
-    private static final int HOUR_MILLIS = 60 * MINUTE_MILLIS;
-    private static final int DAY_MILLIS = 24 * HOUR_MILLIS;
-
-    public String getRelativeTimeAgo(String rawJsonDate) {
-        String twitterFormat = "EEE MMM dd HH:mm:ss ZZZZZ yyyy";
-        SimpleDateFormat sf = new SimpleDateFormat(twitterFormat, Locale.ENGLISH);
-        sf.setLenient(true);
-
-        try {
-            long time = sf.parse(rawJsonDate).getTime();
-            long now = System.currentTimeMillis();
-
-            final long diff = now - time;
-            // Handling different relative time differences (just now, minutes, hours, days)
-            if (diff < MINUTE_MILLIS) {
-                return "just now";
-            } else if (diff < 2 * MINUTE_MILLIS) {
-                return "1m";
-            } else if (diff < 60 * MINUTE_MILLIS) {
-                return diff / MINUTE_MILLIS + "m";
-            } else if (diff < 120 * MINUTE_MILLIS) {
-                return "1h";
-            } else if (diff < 24 * HOUR_MILLIS) {
-                return diff / HOUR_MILLIS + "h";
-            } else if (diff < 48 * HOUR_MILLIS) {
-                return "1d";
-            } else {
-                return diff / DAY_MILLIS + "d";
+    // Merge a page into the timeline, wherever it falls: newer tweets from a refresh, older ones
+    // from scrolling, or the tweets of a gap in between. Tweets already shown are updated rather
+    // than duplicated. Returns how many tweets were new
+    public int addAll(List<Tweet> tweetList) {
+        return timeline.merge(tweetList).insertedCount;
+    }
+
+    // Add a single item to the timeline, e.g. a freshly published tweet, which goes to the top
+    public void addFirst(Tweet tweet) {
+        addAll(Collections.singletonList(tweet));
+    }
+
+    // Swap in a newer copy of a tweet that is already displayed, matched by id
+    public void update(Tweet updatedTweet) {
+        timeline.update(updatedTweet);
+        if (searchResults == null) {
+            return;
+        }
+        for (int i = 0; i < searchResults.size(); i++) {
+            if (ObjectsCompat.equals(searchResults.get(i).id, updatedTweet.id)) {
+                searchResults.set(i, updatedTweet);
+                submit(new ArrayList<>(searchResults));
+                return;
             }
+        }
+    }
+
+    boolean isSearching() {
+        return searchResults != null;
+    }
+
+    // Show search results, in their ranked order, in place of the timeline. The timeline keeps
+    // receiving updates in the meantime
+    public void showSearchResults(List<Tweet> results) {
+        searchResults = new ArrayList<>(results);
+        submit(new ArrayList<>(searchResults));
+    }
 
-        } catch (ParseException e) {
-            Log.i(TAG, "getRelativeTimeAgo failed");
-            e.printStackTrace();
+    public void addSearchResults(List<Tweet> results) {
+        if (searchResults == null) {
+            showSearchResults(results);
+            return;
         }
+        searchResults.addAll(results);
+        submit(new ArrayList<>(searchResults));
+    }
+
+    // Back to the timeline as it is now
+    public void closeSearch() {
+        searchResults = null;
+        submit(timeline.snapshot());
+    }
+
+    // Users are shared objects updated in place, so the differ cannot see a profile change.
+    // Rebind the displayed rows of every tweet by this user instead
+    public void notifyUserChanged(User user) {
+        List<Tweet> current = differ.getCurrentList();
+        for (int i = 0; i < current.size(); i++) {
+            if (current.get(i).user.id == user.id) {
+                notifyItemChanged(i, PAYLOAD_USER_PROFILE);
+            }
+        }
+    }
 
-        return "";
+    // Tweet displayed at the given adapter position
+    Tweet getItem(int position) {
+        return differ.getCurrentList().get(position);
     }
 
-    // Method to turn large integer counts into shorter format, e.g. 50,125 --> 50.1k
-    public String getFormattedCount(long count) {
-        String formattedCount = "";
-        String quantifier = "";
-        int powerOfTen = 1;
-        if(count < 10000) {
-            formattedCount = String.format("%d", count);
-        } else if(count < 1000000) {
-            powerOfTen = 1000;
-            quantifier = "K";
-        } else if (count < 10000000) {
-            powerOfTen = 1000000;
-            quantifier = "M";
-        }
-
-        long remainder = count % powerOfTen;
-        String remainderDigit = Long.toString(remainder).substring(0, 1);
-        if(remainderDigit.equals("0")) {
-            formattedCount = String.format("%d%s", count / powerOfTen, quantifier);
-        } else {
-            formattedCount = String.format("%d.%s%s", count / powerOfTen, remainderDigit, quantifier);
-        }
-
-        return formattedCount;
+    // Image requests used both to bind rows and to preload the rows about to be shown. They must
+    // stay identical (same url, transformations and size) for a preload to be a cache hit
+    RequestBuilder<Drawable> avatarRequest(Tweet tweet) {
+        return Glide.with(context)
+                .load(tweet.user.publicImageUrl)
+                .circleCrop();
+    }
+
+    // Requests the smallest variant of the photo that covers the row at its exact size. Tapped
+    // photos load in full resolution, showing the smaller variant until it arrives
+    RequestBuilder<Drawable> mediaRequest(Tweet tweet) {
+        MediaSizes sizes = tweet.getMediaSizes();
+        if (sizes == null) {
+            // Cached before variant sizes were stored, only the original is known to exist
+            return mediaRequest(tweet.mediaUrl, tweet);
+        }
+        String variant = sizes.select(mediaWidth, mediaHeightFor(tweet), meteredNetwork ? METERED_COVERAGE : 1f);
+        RequestBuilder<Drawable> request = mediaRequest(MediaSizes.variantUrl(tweet.mediaUrl, variant), tweet);
+        if (fullResolutionMedia.contains(tweet.id) && !variant.equals(MediaSizes.LARGE)) {
+            return mediaRequest(MediaSizes.variantUrl(tweet.mediaUrl, MediaSizes.LARGE), tweet).thumbnail(request);
+        }
+        return request;
+    }
+
+    private RequestBuilder<Drawable> mediaRequest(String url, Tweet tweet) {
+        RequestBuilder<Drawable> request = Glide.with(context)
+                .load(url)
+                // Photos are opaque, decode them at half the memory of ARGB_8888. The corners are
+                // clipped by the view, rounding them here would need an alpha channel again
+                .format(DecodeFormat.PREFER_RGB_565)
+                .transform(new CenterCrop());
+        // Until a row has been laid out, the size is taken from the view when binding
+        return mediaWidth > 0 ? request.override(mediaWidth, mediaHeightFor(tweet)) : request;
+    }
+
+    // Height of the media view for this tweet, so the row has its final size before the photo
+    // has loaded
+    int mediaHeightFor(Tweet tweet) {
+        MediaSizes sizes = tweet.getMediaSizes();
+        float aspectRatio = sizes == null ? 0 : sizes.getAspectRatio();
+        if (aspectRatio <= 0 || mediaWidth == 0) {
+            return defaultMediaHeight;
+        }
+        int height = Math.round(mediaWidth / aspectRatio);
+        return Math.max(minMediaHeight, Math.min(height, maxMediaHeight));
+    }
+
+    private void refreshVisibleTimestamps() {
+        if (recyclerView == null || !(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) {
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first != RecyclerView.NO_POSITION) {
+            notifyItemRangeChanged(first, last - first + 1, PAYLOAD_TIMESTAMP);
+        }
+    }
+
+    private void submit(List<Tweet> newTweets) {
+        // Checked once per list change rather than for every bound row
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        meteredNetwork = connectivityManager != null && connectivityManager.isActiveNetworkMetered();
+        tweets = Collections.unmodifiableList(newTweets);
+        differ.submitList(tweets);
+        // Lay out the new bodies while the diff is computed
+        textCache.precompute(tweets);
     }
 
     // Define a View Holder (starting point)
@@ -164,6 +472,11 @@ public class TweetsAdapter extends RecyclerView.Adapter<TweetsAdapter.ViewHolder
         TextView tvBody;
         TextView tvRelativeTimestamp;
         TextView tvLikes;
+        // What the image views currently show, so rebinding the same images skips Glide
+        String boundAvatarUrl;
+        String boundMediaUrl;
+        boolean boundFullResolution;
+        int boundMediaWidth;
 
         // The itemView passed in is the representation of one row in the RecyclerView, i.e. a Tweet,
         // and, thus, contains all the components we defined in one row (item_tweet.xml)
@@ -173,45 +486,106 @@ public class TweetsAdapter extends RecyclerView.Adapter<TweetsAdapter.ViewHolder
             ibLike = itemView.findViewById(R.id.ibLike);
             ivProfileImage = itemView.findViewById(R.id.ivProfileImage);
             ivMedia = itemView.findViewById(R.id.ivMedia);
+            ivMedia.setOutlineProvider(mediaOutline);
+            ivMedia.setClipToOutline(true);
             tvScreenName = itemView.findViewById(R.id.tvScreenName);
             tvName = itemView.findViewById(R.id.tvName);
             tvBody = itemView.findViewById(R.id.tvBody);
+            // Makes the links in the body clickable
+            tvBody.setMovementMethod(LinkMovementMethod.getInstance());
             tvRelativeTimestamp = itemView.findViewById(R.id.tvRelativeTimestamp);
             tvLikes = itemView.findViewById(R.id.tvLikes);
 
-            // Set a click listener on the like button
+            // Set a click listener on the like button, on the photo to load it in full, and on
+            // the send state of a refused local tweet to send it again
             ibLike.setOnClickListener(this);
+            ivMedia.setOnClickListener(this);
+            tvRelativeTimestamp.setOnClickListener(this);
+
+            // Remember the laid out image sizes, the preloader requests images at exactly these
+            ivProfileImage.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                           int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                    avatarWidth = right - left;
+                    avatarHeight = bottom - top;
+                }
+            });
+            ivMedia.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                           int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                    if (v.getVisibility() == View.VISIBLE) {
+                        mediaWidth = right - left;
+                    }
+                }
+            });
         }
 
         // Bind data stored in our Tweet model into the itemView of the view holder
         public void bind(Tweet tweet) {
-            tvRelativeTimestamp.setText(getRelativeTimeAgo(tweet.createdAt));
-            tvBody.setText(tweet.body);
+            bindTime(tweet, System.currentTimeMillis());
+            // The body is normally laid out already, otherwise it is laid out off the main thread
+            PrecomputedTextCompat body = textCache.get(tweet);
+            if (body != null) {
+                TextViewCompat.setPrecomputedText(tvBody, body);
+            } else {
+                ((AppCompatTextView) tvBody).setTextFuture(textCache.future(tweet));
+            }
+            bindUser(tweet);
+            bindCounts(tweet);
+            bindMedia(tweet);
+            bindLikeState(tweet);
+        }
+
+        void bindUser(Tweet tweet) {
             tvName.setText(tweet.user.name);
-            String likeCount = getFormattedCount(tweet.likeCount);
-            tvLikes.setText(likeCount);
             // Insert an '@' before screen name
-            String fullScreenName = String.format("@%s", tweet.user.screenName);
-            tvScreenName.setText(fullScreenName);
+            tvScreenName.setText("@" + tweet.user.screenName);
+            // Rows of the same author show the same avatar, keep it rather than loading it again
+            if (!ObjectsCompat.equals(boundAvatarUrl, tweet.user.publicImageUrl)) {
+                avatarRequest(tweet).into(ivProfileImage);
+                boundAvatarUrl = tweet.user.publicImageUrl;
+            }
+        }
 
-            Glide.with(context)
-                    .load(tweet.user.publicImageUrl)
-                    .circleCrop()
-                    .into(ivProfileImage);
+        void bindCounts(Tweet tweet) {
+            tvLikes.setText(CompactCountFormatter.getInstance().format(tweet.likeCount));
+        }
+
+        void bindMedia(Tweet tweet) {
             // Making sure there is embedded media to display
             if(!tweet.mediaUrl.isEmpty()) {
                 ivMedia.setVisibility(View.VISIBLE);
-                Glide.with(context)
-                        .load(tweet.mediaUrl)
-                        .transform(new MultiTransformation(new CenterCrop(), new RoundedCornersTransformation(10, 0)))
-                        .into(ivMedia);
+                // Reserve the photo's height before it loads, so the row does not jump
+                int mediaHeight = mediaHeightFor(tweet);
+                ViewGroup.LayoutParams params = ivMedia.getLayoutParams();
+                if (params.height != mediaHeight) {
+                    params.height = mediaHeight;
+                    ivMedia.setLayoutParams(params);
+                }
+                // Only load if a different photo, resolution or size is needed
+                boolean fullResolution = fullResolutionMedia.contains(tweet.id);
+                if (!tweet.mediaUrl.equals(boundMediaUrl) || fullResolution != boundFullResolution
+                        || mediaWidth != boundMediaWidth) {
+                    mediaRequest(tweet).into(ivMedia);
+                    boundMediaUrl = tweet.mediaUrl;
+                    boundFullResolution = fullResolution;
+                    boundMediaWidth = mediaWidth;
+                }
             }
             else {
                 ivMedia.setVisibility(View.GONE);
+                if (boundMediaUrl != null) {
+                    Glide.with(context).clear(ivMedia);
+                    boundMediaUrl = null;
+                }
             }
+        }
 
-            // Change the color of the like button and like count based on whether the tweet
-            // has been "liked" by the user
+        // Change the color of the like button and like count based on whether the tweet
+        // has been "liked" by the user
+        void bindLikeState(Tweet tweet) {
             if(tweet.liked) {
                 ibLike.setColorFilter(ContextCompat.getColor(context, R.color.red));
                 tvLikes.setTextColor(ContextCompat.getColor(context, R.color.red));
@@ -222,34 +596,49 @@ public class TweetsAdapter extends RecyclerView.Adapter<TweetsAdapter.ViewHolder
             }
         }
 
+        // Labels are shared and cached, so this neither parses nor allocates. A local tweet
+        // shows how its send is going instead
+        void bindTime(Tweet tweet, long nowMillis) {
+            if (tweet.sendState == Tweet.SENDING) {
+                tvRelativeTimestamp.setText(R.string.tweet_sending);
+            } else if (tweet.sendState == Tweet.SEND_FAILED) {
+                tvRelativeTimestamp.setText(R.string.tweet_send_failed);
+            } else {
+                tvRelativeTimestamp.setText(RelativeTimeFormatter.format(tweet.createdAtMillis, nowMillis));
+            }
+        }
+
         @Override
         public void onClick(View view) {
             if(view.getId() == R.id.ibLike) {
                 final int position = getAdapterPosition();
-                Tweet tweet = tweets.get(position);
-                JsonHttpResponseHandler handler = new JsonHttpResponseHandler() {
-                    @Override
-                    public void onSuccess(int statusCode, Headers headers, JSON json) {
-                        Log.i(TAG, "onSuccess to unlike tweet");
-                        try {
-                            Tweet updatedTweet = Tweet.fromJson(json.jsonObject);
-                            tweets.remove(position);
-                            tweets.add(position, updatedTweet);
-                            notifyItemChanged(position);
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                    }
-
-                    @Override
-                    public void onFailure(int statusCode, Headers headers, String response, Throwable throwable) {
-                        Log.e(TAG, "onFailure: " + response, throwable);
-                    }
-                };
-                if(tweet.liked) {
-                    client.unlikeTweet(tweet.id, handler);
-                } else {
-                    client.likeTweet(tweet.id, handler);
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                Tweet tweet = differ.getCurrentList().get(position);
+                // Twitter does not know a local tweet yet, there is nothing to like
+                if (tweet.isLocal()) {
+                    return;
+                }
+                // The outbox records the like and sends it when it can, show it right away
+                update(outbox.toggleLike(tweet));
+            } else if (view.getId() == R.id.ivMedia) {
+                int position = getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                if (fullResolutionMedia.add(differ.getCurrentList().get(position).id)) {
+                    notifyItemChanged(position);
+                }
+            } else if (view.getId() == R.id.tvRelativeTimestamp) {
+                int position = getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                Tweet tweet = differ.getCurrentList().get(position);
+                if (tweet.sendState == Tweet.SEND_FAILED) {
+                    // Shown as sending again once the outbox has it queued
+                    outbox.retryPublish(tweet);
                 }
             }
         }
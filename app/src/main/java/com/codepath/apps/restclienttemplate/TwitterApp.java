@@ -2,14 +2,15 @@ package com.codepath.apps.restclienttemplate;
 
 import android.app.Application;
 import android.content.Context;
+import android.text.format.DateUtils;
 
 import androidx.room.Room;
 
-import com.facebook.stetho.Stetho;
+import com.bumptech.glide.Glide;
 
 /*
  * This is the Android application itself and is used to configure various settings
- * including the image cache in memory and on disk. This also adds a singleton
+ * (the image cache in memory and on disk is configured by TwitterGlideModule). This also adds a singleton
  * for accessing the relevant rest client.
  *
  *     TwitterClient client = TwitterApp.getRestClient(Context context);
@@ -19,17 +20,66 @@ import com.facebook.stetho.Stetho;
 public class TwitterApp extends Application {
 
     MyDatabase myDatabase;
+    IngestPipeline ingestPipeline;
+    Outbox outbox;
 
     @Override
     public void onCreate() {
         super.onCreate();
-        // when upgrading versions, kill the original tables by using
-		// fallbackToDestructiveMigration()
-        myDatabase = Room.databaseBuilder(this, MyDatabase.class,
-                MyDatabase.NAME).fallbackToDestructiveMigration().build();
-
-        // use chrome://inspect to inspect your SQL database
-        Stetho.initializeWithDefaults(this);
+        final Context context = this;
+        // Only what the first screen needs runs before it, the rest goes to a background thread
+        new AppStartup()
+                .add(new AppStartup.Initializer("database", false) {
+                    @Override
+                    protected void run() {
+                        // when upgrading versions, carry the cached tables forward with the migrations
+                        // defined in MyDatabase rather than wiping them. Building it does not open
+                        // the file yet
+                        myDatabase = Room.databaseBuilder(context, MyDatabase.class,
+                                MyDatabase.NAME).addMigrations(MyDatabase.MIGRATIONS).addCallback(MyDatabase.CALLBACK).build();
+                    }
+                })
+                .add(new AppStartup.Initializer("ingestPipeline", false, "database") {
+                    @Override
+                    protected void run() {
+                        // Background parse/persist stages shared by every screen that talks to the API
+                        ingestPipeline = new IngestPipeline(myDatabase);
+                        // Keep the cache bounded, starting once launch work has settled
+                        ingestPipeline.scheduleCompaction(MyDatabase.RetentionPolicy.DEFAULT,
+                                30 * DateUtils.SECOND_IN_MILLIS, 6 * DateUtils.HOUR_IN_MILLIS);
+                    }
+                })
+                .add(new AppStartup.Initializer("outbox", false, "database", "ingestPipeline") {
+                    @Override
+                    protected void run() {
+                        // Send whatever likes and tweets were still waiting when the app last stopped.
+                        // The OAuth client is only created once there is something to send
+                        outbox = new Outbox(context, myDatabase, ingestPipeline);
+                        outbox.drain();
+                    }
+                })
+                .add(new AppStartup.Initializer("databaseWarmUp", true, "database") {
+                    @Override
+                    protected void run() {
+                        // Open the file and run any migration now, rather than in the first query
+                        myDatabase.getOpenHelper().getWritableDatabase();
+                    }
+                })
+                .add(new AppStartup.Initializer("glide", true) {
+                    @Override
+                    protected void run() {
+                        // Sets up the caches of TwitterGlideModule before the first image request
+                        Glide.get(context);
+                    }
+                })
+                .add(new AppStartup.Initializer("debugTools", true) {
+                    @Override
+                    protected void run() {
+                        // Stetho in debug builds, nothing in release builds
+                        DebugTools.init(context);
+                    }
+                })
+                .start();
     }
 
     public static TwitterClient getRestClient(Context context) {
@@ -39,4 +89,12 @@ public class TwitterApp extends Application {
     public MyDatabase getMyDatabase() {
         return myDatabase;
     }
+
+    public IngestPipeline getIngestPipeline() {
+        return ingestPipeline;
+    }
+
+    public Outbox getOutbox() {
+        return outbox;
+    }
 }
\ No newline at end of file
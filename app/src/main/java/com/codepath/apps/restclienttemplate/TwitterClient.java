@@ -1,10 +1,11 @@
 package com.codepath.apps.restclienttemplate;
 
 import android.content.Context;
+import android.util.Log;
 
 
+import com.codepath.apps.restclienttemplate.models.Tweet;
 import com.codepath.asynchttpclient.RequestParams;
-import com.codepath.asynchttpclient.callback.JsonHttpResponseHandler;
 import com.codepath.oauth.OAuthBaseClient;
 
 
@@ -13,6 +14,14 @@ import com.github.scribejava.apis.FlickrApi;
 import com.github.scribejava.apis.TwitterApi;
 import com.github.scribejava.core.builder.api.BaseApi;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import okhttp3.Headers;
+
 /*
  * 
  * This is the object responsible for communicating with a REST API. 
@@ -37,6 +46,12 @@ public class TwitterClient extends OAuthBaseClient {
 	// See https://developer.chrome.com/multidevice/android/intents
 	public static final String REST_CALLBACK_URL_TEMPLATE = "intent://%s#Intent;action=android.intent.action.VIEW;scheme=%s;package=%s;S.browser_fallback_url=%s;end";
 
+	private static final String TAG = "TwitterClient";
+
+	private final Context appContext;
+	// GETs currently on the network, by endpoint and params. Main thread only
+	private final Map<String, SharedRequest> inFlight = new HashMap<>();
+
 	public TwitterClient(Context context) {
 		super(context, REST_API_INSTANCE,
 				REST_URL,
@@ -45,49 +60,191 @@ public class TwitterClient extends OAuthBaseClient {
 				null,  // OAuth2 scope, null for OAuth1
 				String.format(REST_CALLBACK_URL_TEMPLATE, context.getString(R.string.intent_host),
 						context.getString(R.string.intent_scheme), context.getPackageName(), FALLBACK_URL));
+		this.appContext = context.getApplicationContext();
 	}
 	// CHANGE THIS
 	// DEFINE METHODS for different API endpoints here
-	public void getHomeTimeline(JsonHttpResponseHandler handler) {
+	// Number of tweets requested per page of the home timeline
+	public static final int TIMELINE_PAGE_SIZE = 25;
+
+	public RequestHandle getHomeTimeline(TweetStreamHandler handler) {
 		String apiUrl = getApiUrl("statuses/home_timeline.json");
-		// Can specify query string params directly or through RequestParams.
-		RequestParams params = new RequestParams();
-		params.put("count", 25);
-		params.put("include_entities", true);
-		params.put("since_id", 1);
-		client.get(apiUrl, params, handler);
+		// Params go into a sorted map first, which also identifies identical requests
+		Map<String, String> params = new TreeMap<>();
+		params.put("count", String.valueOf(TIMELINE_PAGE_SIZE));
+		params.put("include_entities", "true");
+		params.put("since_id", "1");
+		return enqueue(false, apiUrl, params, handler);
 	}
 
-	public void getNextPageOfTweets(JsonHttpResponseHandler handler, long maxId) {
+	// Tweets strictly newer than sinceId, and no newer than maxId unless maxId is 0
+	public RequestHandle getHomeTimeline(TweetStreamHandler handler, long sinceId, long maxId) {
 		String apiUrl = getApiUrl("statuses/home_timeline.json");
-		// Can specify query string params directly or through RequestParams.
-		RequestParams params = new RequestParams();
-		params.put("count", 25);
-		params.put("include_entities", true);
-		params.put("max_id", maxId);
-		client.get(apiUrl, params, handler);
+		Map<String, String> params = new TreeMap<>();
+		params.put("count", String.valueOf(TIMELINE_PAGE_SIZE));
+		params.put("include_entities", "true");
+		params.put("since_id", String.valueOf(sinceId));
+		if (maxId > 0) {
+			params.put("max_id", String.valueOf(maxId));
+		}
+		return enqueue(false, apiUrl, params, handler);
 	}
 
-	public void publishTweet(String tweetContent, JsonHttpResponseHandler handler) {
+	public RequestHandle getNextPageOfTweets(TweetStreamHandler handler, long maxId) {
+		String apiUrl = getApiUrl("statuses/home_timeline.json");
+		Map<String, String> params = new TreeMap<>();
+		params.put("count", String.valueOf(TIMELINE_PAGE_SIZE));
+		params.put("include_entities", "true");
+		params.put("max_id", String.valueOf(maxId));
+		return enqueue(false, apiUrl, params, handler);
+	}
+
+	public RequestHandle publishTweet(String tweetContent, TweetStreamHandler handler) {
 		String apiUrl = getApiUrl("statuses/update.json");
-		// Can specify query string params directly or through RequestParams.
-		RequestParams params = new RequestParams();
+		Map<String, String> params = new TreeMap<>();
 		params.put("status", tweetContent);
-		client.post(apiUrl, params, "", handler);
+		return enqueue(true, apiUrl, params, handler);
 	}
 
-	public void likeTweet(long tweetId, JsonHttpResponseHandler handler) {
+	public RequestHandle likeTweet(long tweetId, TweetStreamHandler handler) {
 		String apiUrl = getApiUrl("favorites/create.json");
-		RequestParams params = new RequestParams();
-		params.put("id", tweetId);
-		client.post(apiUrl, params, "", handler);
+		Map<String, String> params = new TreeMap<>();
+		params.put("id", String.valueOf(tweetId));
+		return enqueue(true, apiUrl, params, handler);
 	}
 
-	public void unlikeTweet(long tweetId, JsonHttpResponseHandler handler) {
+	public RequestHandle unlikeTweet(long tweetId, TweetStreamHandler handler) {
 		String apiUrl = getApiUrl("favorites/destroy.json");
-		RequestParams params = new RequestParams();
-		params.put("id", tweetId);
-		client.post(apiUrl, params, "", handler);
+		Map<String, String> params = new TreeMap<>();
+		params.put("id", String.valueOf(tweetId));
+		return enqueue(true, apiUrl, params, handler);
+	}
+
+	// Single-flight: a GET identical to one already in flight (same endpoint and params) does not
+	// hit the network again, it waits on the existing call and gets the same result. A POST
+	// changes something on the server, so each one is sent on its own.
+	// Must be called on the main thread, where results are delivered too
+	private RequestHandle enqueue(boolean post, String apiUrl, Map<String, String> paramMap, TweetStreamHandler handler) {
+		String key = (post ? "POST " : "GET ") + apiUrl + paramMap + (handler.persists() ? "" : " transient");
+		SharedRequest shared = post ? null : inFlight.get(key);
+		if (shared == null) {
+			shared = new SharedRequest(key, handler.persists());
+			if (!post) {
+				inFlight.put(key, shared);
+			}
+			RequestParams params = new RequestParams();
+			for (Map.Entry<String, String> param : paramMap.entrySet()) {
+				params.put(param.getKey(), param.getValue());
+			}
+			if (post) {
+				client.post(apiUrl, params, "", shared.networkHandler);
+			} else {
+				client.get(apiUrl, params, shared.networkHandler);
+			}
+		} else {
+			Log.d(TAG, "Joining in-flight request " + key);
+		}
+		return shared.attach(handler);
+	}
+
+	// One network call and every caller waiting on its result
+	private class SharedRequest {
+		final String key;
+		final IngestPipeline.Scope scope;
+		final List<RequestHandle> waiters = new ArrayList<>();
+		final TweetStreamHandler networkHandler;
+		// Whether the result has been handed out, after which there is no call left to cancel
+		boolean finished;
+
+		SharedRequest(String key, boolean persist) {
+			this.key = key;
+			this.scope = ((TwitterApp) appContext).getIngestPipeline().newScope();
+			this.networkHandler = new TweetStreamHandler(scope, persist) {
+				@Override
+				public void onSuccess(int statusCode, Headers headers, List<Tweet> tweets) {
+					for (RequestHandle waiter : finish()) {
+						waiter.handler.onSuccess(statusCode, headers, tweets);
+					}
+				}
+
+				@Override
+				public void onFailure(int statusCode, Headers headers, String response, Throwable throwable) {
+					for (RequestHandle waiter : finish()) {
+						waiter.handler.onFailure(statusCode, headers, response, throwable);
+					}
+				}
+			};
+		}
+
+		RequestHandle attach(TweetStreamHandler handler) {
+			RequestHandle waiter = new RequestHandle(this, handler);
+			if (handler.getScope().isCancelled()) {
+				waiter.cancel();
+				return waiter;
+			}
+			waiters.add(waiter);
+			handler.getScope().addCancelListener(waiter.cancelTask);
+			return waiter;
+		}
+
+		// Removes the request from the in-flight table and returns the callers still waiting
+		List<RequestHandle> finish() {
+			finished = true;
+			if (inFlight.get(key) == this) {
+				inFlight.remove(key);
+			}
+			List<RequestHandle> remaining = new ArrayList<>(waiters);
+			waiters.clear();
+			for (RequestHandle waiter : remaining) {
+				waiter.handler.getScope().removeCancelListener(waiter.cancelTask);
+			}
+			return remaining;
+		}
+
+		void detach(RequestHandle waiter) {
+			waiters.remove(waiter);
+			waiter.handler.getScope().removeCancelListener(waiter.cancelTask);
+			// Nobody wants the result anymore. The client does not hand out the call, so one still
+			// waiting for headers keeps using the network until its response arrives, which is
+			// then closed unread
+			if (waiters.isEmpty() && !finished) {
+				if (inFlight.get(key) == this) {
+					inFlight.remove(key);
+				}
+				scope.cancel();
+			}
+		}
+	}
+
+	// Handle on one caller's interest in a request. Cancelled automatically with the caller's
+	// ingest scope; the network call is only cancelled once no caller is waiting on it
+	public static class RequestHandle {
+		private final SharedRequest request;
+		private final TweetStreamHandler handler;
+		private boolean cancelled;
+		private final Runnable cancelTask = new Runnable() {
+			@Override
+			public void run() {
+				cancel();
+			}
+		};
+
+		private RequestHandle(SharedRequest request, TweetStreamHandler handler) {
+			this.request = request;
+			this.handler = handler;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public void cancel() {
+			if (cancelled) {
+				return;
+			}
+			cancelled = true;
+			request.detach(this);
+		}
 	}
 
 	/* 1. Define the endpoint URL with getApiUrl and pass a relative path to the endpoint
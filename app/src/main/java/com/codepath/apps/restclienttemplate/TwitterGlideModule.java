@@ -0,0 +1,188 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+import com.bumptech.glide.load.engine.cache.DiskLruCacheWrapper;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.module.AppGlideModule;
+import com.bumptech.glide.request.RequestOptions;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Glide configuration for the app, picked up by Glide's annotation processor:
+ *
+ *   - memory cache and bitmap pool sized from the app's memory class instead of the screen size
+ *   - avatars and media on separate disk cache partitions, so a few large photos cannot evict
+ *     the small avatars that show up on nearly every row
+ *   - transformed results (circle-cropped avatars, center-cropped media) cached on disk next to the
+ *     originals, so they are not cropped again for every row that shows them
+ *
+ * Hit, miss and eviction counters for every cache are kept in static fields so the numbers can
+ * be read from anywhere while tuning.
+ */
+@GlideModule
+public class TwitterGlideModule extends AppGlideModule {
+    private static final String TAG = "TwitterGlideModule";
+
+    // Share of the app's heap (its memory class) given to decoded images
+    private static final float MEMORY_CACHE_FRACTION = 1 / 8f;
+    private static final float BITMAP_POOL_FRACTION = 1 / 16f;
+
+    private static final long AVATAR_DISK_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final long MEDIA_DISK_CACHE_BYTES = 96 * 1024 * 1024;
+    private static final String AVATAR_DISK_CACHE_DIR = "glide_avatars";
+    private static final String MEDIA_DISK_CACHE_DIR = "glide_media";
+    // Twitter serves every profile picture from under this path
+    private static final String AVATAR_PATH = "/profile_images/";
+
+    private static CountingMemoryCache memoryCache;
+    private static LruBitmapPool bitmapPool;
+    private static final AtomicLong diskHits = new AtomicLong();
+    private static final AtomicLong diskMisses = new AtomicLong();
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        final Context appContext = context.getApplicationContext();
+        ActivityManager activityManager = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+        long heapBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+        if (activityManager.isLowRamDevice()) {
+            heapBytes /= 2;
+        }
+        memoryCache = new CountingMemoryCache((long) (heapBytes * MEMORY_CACHE_FRACTION));
+        bitmapPool = new LruBitmapPool((long) (heapBytes * BITMAP_POOL_FRACTION));
+        Log.i(TAG, "Memory cache " + memoryCache.getMaxSize() + " bytes, bitmap pool " + bitmapPool.getMaxSize() + " bytes");
+        builder.setMemoryCache(memoryCache);
+        builder.setBitmapPool(bitmapPool);
+
+        builder.setDiskCache(new DiskCache.Factory() {
+            @Override
+            public DiskCache build() {
+                File cacheDir = appContext.getCacheDir();
+                return new PartitionedDiskCache(
+                        DiskLruCacheWrapper.create(new File(cacheDir, AVATAR_DISK_CACHE_DIR), AVATAR_DISK_CACHE_BYTES),
+                        DiskLruCacheWrapper.create(new File(cacheDir, MEDIA_DISK_CACHE_DIR), MEDIA_DISK_CACHE_BYTES));
+            }
+        });
+
+        // Keep both the downloaded original and the transformed result on disk
+        builder.setDefaultRequestOptions(new RequestOptions().diskCacheStrategy(DiskCacheStrategy.ALL));
+    }
+
+    // Everything is configured here, there are no library modules to discover in the manifest
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+
+    public static long getMemoryCacheHits() {
+        return memoryCache == null ? 0 : memoryCache.hits.get();
+    }
+
+    public static long getMemoryCacheMisses() {
+        return memoryCache == null ? 0 : memoryCache.misses.get();
+    }
+
+    public static long getMemoryCacheEvictions() {
+        return memoryCache == null ? 0 : memoryCache.evictions.get();
+    }
+
+    public static long getBitmapPoolHits() {
+        return bitmapPool == null ? 0 : bitmapPool.hitCount();
+    }
+
+    public static long getBitmapPoolMisses() {
+        return bitmapPool == null ? 0 : bitmapPool.missCount();
+    }
+
+    public static long getBitmapPoolEvictions() {
+        return bitmapPool == null ? 0 : bitmapPool.evictionCount();
+    }
+
+    public static long getDiskCacheHits() {
+        return diskHits.get();
+    }
+
+    public static long getDiskCacheMisses() {
+        return diskMisses.get();
+    }
+
+    // Memory cache counting lookups and evictions. The engine looks a resource up by removing it
+    // from the cache (it then becomes an active resource), so every remove is a lookup
+    private static class CountingMemoryCache extends LruResourceCache {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+
+        CountingMemoryCache(long size) {
+            super(size);
+        }
+
+        @Nullable
+        @Override
+        public synchronized Resource<?> remove(@NonNull Key key) {
+            Resource<?> resource = super.remove(key);
+            (resource == null ? misses : hits).incrementAndGet();
+            return resource;
+        }
+
+        @Override
+        protected void onItemEvicted(@NonNull Key key, @Nullable Resource<?> item) {
+            evictions.incrementAndGet();
+            super.onItemEvicted(key, item);
+        }
+    }
+
+    // Routes avatars and media to their own disk cache. Glide's cache keys do not expose their
+    // source, but both original and transformed keys print the url they were loaded from
+    private static class PartitionedDiskCache implements DiskCache {
+        private final DiskCache avatars;
+        private final DiskCache media;
+
+        PartitionedDiskCache(DiskCache avatars, DiskCache media) {
+            this.avatars = avatars;
+            this.media = media;
+        }
+
+        private DiskCache partitionFor(Key key) {
+            return key.toString().contains(AVATAR_PATH) ? avatars : media;
+        }
+
+        @Nullable
+        @Override
+        public File get(Key key) {
+            File file = partitionFor(key).get(key);
+            (file == null ? diskMisses : diskHits).incrementAndGet();
+            return file;
+        }
+
+        @Override
+        public void put(Key key, Writer writer) {
+            partitionFor(key).put(key, writer);
+        }
+
+        @Override
+        public void delete(Key key) {
+            partitionFor(key).delete(key);
+        }
+
+        @Override
+        public void clear() {
+            avatars.clear();
+            media.clear();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.codepath.apps.restclienttemplate.models;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/*
+ * Pixel sizes of the variants Twitter serves for an attached photo, from the "sizes" object of
+ * the media entity. Any variant is fetched by appending ":<name>" to media_url_https.
+ *
+ * Stored on the Tweet in the compact form "thumb:150x150,small:680x383,...", so the layout can
+ * reserve the photo's aspect ratio and pick the variant to download before any bytes arrive.
+ */
+public class MediaSizes {
+
+    public static final String THUMB = "thumb";
+    public static final String SMALL = "small";
+    public static final String MEDIUM = "medium";
+    public static final String LARGE = "large";
+
+    // Smallest first, so the first variant that fits is also the cheapest
+    private static final String[] NAMES = {THUMB, SMALL, MEDIUM, LARGE};
+
+    private final int[] widths = new int[NAMES.length];
+    private final int[] heights = new int[NAMES.length];
+
+    // Reads a "sizes" object off a streamed response
+    public static MediaSizes fromJsonReader(JsonReader reader) throws IOException {
+        MediaSizes sizes = new MediaSizes();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int index = indexOf(reader.nextName());
+            if (index < 0 || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("w")) {
+                    sizes.widths[index] = reader.nextInt();
+                } else if (name.equals("h")) {
+                    sizes.heights[index] = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return sizes;
+    }
+
+    public static MediaSizes fromJson(JSONObject jsonObject) throws JSONException {
+        MediaSizes sizes = new MediaSizes();
+        for (int i = 0; i < NAMES.length; i++) {
+            JSONObject size = jsonObject.optJSONObject(NAMES[i]);
+            if (size != null) {
+                sizes.widths[i] = size.getInt("w");
+                sizes.heights[i] = size.getInt("h");
+            }
+        }
+        return sizes;
+    }
+
+    // Parses the stored form, or returns null if there is none (tweets cached before it existed)
+    public static MediaSizes decode(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return null;
+        }
+        MediaSizes sizes = new MediaSizes();
+        for (String variant : encoded.split(",")) {
+            int colon = variant.indexOf(':');
+            int x = variant.indexOf('x', colon);
+            int index = colon < 0 ? -1 : indexOf(variant.substring(0, colon));
+            if (index < 0 || x < 0) {
+                continue;
+            }
+            try {
+                sizes.widths[index] = Integer.parseInt(variant.substring(colon + 1, x));
+                sizes.heights[index] = Integer.parseInt(variant.substring(x + 1));
+            } catch (NumberFormatException e) {
+                // Skip the malformed variant, the others are still usable
+            }
+        }
+        return sizes;
+    }
+
+    public String encode() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < NAMES.length; i++) {
+            if (widths[i] == 0 || heights[i] == 0) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(NAMES[i]).append(':').append(widths[i]).append('x').append(heights[i]);
+        }
+        return builder.toString();
+    }
+
+    // Width over height of the full photo, or 0 if unknown. Every variant but thumb is resized to
+    // fit, so they all share this ratio
+    public float getAspectRatio() {
+        for (int i = NAMES.length - 1; i > 0; i--) {
+            if (widths[i] > 0 && heights[i] > 0) {
+                return (float) widths[i] / heights[i];
+            }
+        }
+        return 0;
+    }
+
+    // Name of the smallest variant that covers a target of the given size once center cropped, or
+    // the largest one if none does. coverage below 1 accepts variants that are upscaled a little,
+    // e.g. to save data on a metered network
+    public String select(int targetWidth, int targetHeight, float coverage) {
+        int minWidth = (int) Math.ceil(targetWidth * coverage);
+        int minHeight = (int) Math.ceil(targetHeight * coverage);
+        String largest = LARGE;
+        for (int i = 0; i < NAMES.length; i++) {
+            if (widths[i] == 0 || heights[i] == 0) {
+                continue;
+            }
+            // The thumb is a square crop, only use it where the photo is shown square as well
+            if (NAMES[i].equals(THUMB) && Math.abs(targetWidth - targetHeight) > targetWidth / 4) {
+                continue;
+            }
+            largest = NAMES[i];
+            if (widths[i] >= minWidth && heights[i] >= minHeight) {
+                return NAMES[i];
+            }
+        }
+        return largest;
+    }
+
+    // Url of the named variant of a photo
+    public static String variantUrl(String mediaUrl, String name) {
+        return mediaUrl + ":" + name;
+    }
+
+    private static int indexOf(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
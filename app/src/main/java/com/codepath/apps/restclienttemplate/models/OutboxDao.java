@@ -0,0 +1,46 @@
+package com.codepath.apps.restclienttemplate.models;
+
+import androidx.room.Dao;
+import androidx.room.Delete;
+import androidx.room.Insert;
+import androidx.room.Query;
+import androidx.room.Update;
+
+import java.util.List;
+
+@Dao
+public interface OutboxDao {
+
+    // Next mutation to send, mutations are sent in the order they were made. Refused new tweets
+    // wait for the user to retry them
+    @Query("SELECT * FROM PendingMutation WHERE failed = 0 ORDER BY id LIMIT 1")
+    PendingMutation oldest();
+
+    // Every like and unlike still waiting to be sent, in the order they were made
+    @Query("SELECT * FROM PendingMutation WHERE type IN (0, 1) ORDER BY id")
+    List<PendingMutation> pendingLikeToggles();
+
+    @Query("SELECT * FROM PendingMutation WHERE id = :id")
+    PendingMutation byId(long id);
+
+    // New tweets not published yet, newest first like the timeline
+    @Query("SELECT * FROM PendingMutation WHERE type = 2 ORDER BY id DESC")
+    List<PendingMutation> pendingPublishes();
+
+    // Latest like or unlike of a tweet still waiting to be sent, other than the excluded one
+    @Query("SELECT * FROM PendingMutation WHERE tweetId = :tweetId AND type IN (0, 1) AND id != :excludeId" +
+            " ORDER BY id DESC LIMIT 1")
+    PendingMutation pendingLikeToggle(long tweetId, long excludeId);
+
+    @Query("SELECT COUNT(*) FROM PendingMutation WHERE failed = 0")
+    int count();
+
+    @Insert
+    long insert(PendingMutation mutation);
+
+    @Update
+    void update(PendingMutation mutation);
+
+    @Delete
+    void delete(PendingMutation mutation);
+}
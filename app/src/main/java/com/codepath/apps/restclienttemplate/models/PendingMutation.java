@@ -0,0 +1,82 @@
+package com.codepath.apps.restclienttemplate.models;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/*
+ * A change the user made that has not reached Twitter yet: a like, an unlike or a new tweet.
+ * Rows are sent in id order by the Outbox and deleted once the server accepted or refused them.
+ * A new tweet is shown in the timeline while it waits, as the local tweet built by toLocalTweet.
+ */
+@Entity(indices = @Index("tweetId"))
+public class PendingMutation {
+
+    public static final int TYPE_LIKE = 0;
+    public static final int TYPE_UNLIKE = 1;
+    public static final int TYPE_PUBLISH = 2;
+
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    @ColumnInfo
+    public int type;
+
+    // Tweet being liked or unliked, 0 for a new tweet
+    @ColumnInfo
+    public long tweetId;
+
+    // Text of a new tweet
+    @ColumnInfo
+    public String body;
+
+    // When the user made the change, used to measure drain latency
+    @ColumnInfo
+    public long createdAtMillis;
+
+    // Failed sends so far, drives the retry backoff
+    @ColumnInfo
+    public int attempts;
+
+    // A new tweet the server refused. It is no longer sent, but kept until the user retries it
+    @ColumnInfo(defaultValue = "0")
+    public boolean failed;
+
+    public PendingMutation() {}
+
+    public static PendingMutation like(long tweetId, boolean liked) {
+        PendingMutation mutation = new PendingMutation();
+        mutation.type = liked ? TYPE_LIKE : TYPE_UNLIKE;
+        mutation.tweetId = tweetId;
+        mutation.createdAtMillis = System.currentTimeMillis();
+        return mutation;
+    }
+
+    public static PendingMutation publish(String body) {
+        PendingMutation mutation = new PendingMutation();
+        mutation.type = TYPE_PUBLISH;
+        mutation.body = body;
+        mutation.createdAtMillis = System.currentTimeMillis();
+        return mutation;
+    }
+
+    // The new tweet this mutation publishes, as shown until the server has it. Its id sorts
+    // above every tweet from the server, and maps back to this row with mutationId
+    public Tweet toLocalTweet(User author) {
+        Tweet tweet = new Tweet();
+        tweet.id = Tweet.LOCAL_ID_BASE + id;
+        tweet.body = body;
+        tweet.createdAtMillis = createdAtMillis;
+        tweet.mediaUrl = "";
+        tweet.user = author;
+        tweet.userId = author.id;
+        tweet.sendState = failed ? Tweet.SEND_FAILED : Tweet.SENDING;
+        return tweet;
+    }
+
+    // Id of the row a local tweet was built from
+    public static long mutationId(Tweet localTweet) {
+        return localTweet.id - Tweet.LOCAL_ID_BASE;
+    }
+}
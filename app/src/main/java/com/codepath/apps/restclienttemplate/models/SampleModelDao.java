@@ -19,6 +19,10 @@ public interface SampleModelDao {
     @Query("SELECT * FROM SampleModel ORDER BY ID DESC LIMIT 300")
     List<SampleModel> recentItems();
 
+    // Retention: everything but the newest maxRows models
+    @Query("DELETE FROM SampleModel WHERE id NOT IN (SELECT id FROM SampleModel ORDER BY id DESC LIMIT :maxRows)")
+    int trimToNewest(int maxRows);
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertModel(SampleModel... sampleModels);
 }
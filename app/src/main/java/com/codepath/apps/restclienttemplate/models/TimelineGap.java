@@ -0,0 +1,31 @@
+package com.codepath.apps.restclienttemplate.models;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/*
+ * Range of the home timeline that an incremental sync skipped because it could not connect the
+ * new tweets to the cached ones within its page budget. Every tweet with
+ * sinceId < id <= maxId may be missing from the cache; the range is filled lazily when the
+ * user scrolls into it.
+ */
+@Entity
+public class TimelineGap {
+
+    // Id of the newest cached tweet below the gap (exclusive)
+    @ColumnInfo
+    @PrimaryKey
+    public long sinceId;
+
+    // Id just below the oldest tweet fetched above the gap (inclusive)
+    @ColumnInfo
+    public long maxId;
+
+    public TimelineGap() {}
+
+    public TimelineGap(long sinceId, long maxId) {
+        this.sinceId = sinceId;
+        this.maxId = maxId;
+    }
+}
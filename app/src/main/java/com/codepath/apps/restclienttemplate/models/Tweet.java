@@ -1,11 +1,14 @@
 package com.codepath.apps.restclienttemplate.models;
 
 import android.text.format.DateUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.ForeignKey;
 import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 import org.json.JSONArray;
@@ -13,6 +16,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.parceler.Parcel;
 
+import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -20,9 +24,33 @@ import java.util.List;
 import java.util.Locale;
 
 @Parcel
-@Entity(foreignKeys = @ForeignKey(entity=User.class, parentColumns = "id", childColumns = "userId"))
+@Entity(foreignKeys = @ForeignKey(entity=User.class, parentColumns = "id", childColumns = "userId"),
+        // SQLite walks the createdAtMillis index backwards for ORDER BY ... DESC, and the userId
+        // index backs the foreign key and the join with User
+        indices = {@Index("createdAtMillis"), @Index("userId")})
 public class Tweet {
 
+    // Format of the "created_at" field returned by the Twitter API
+    public static final String TWITTER_DATE_FORMAT = "EEE MMM dd HH:mm:ss ZZZZZ yyyy";
+
+    // Ids of tweets that only exist on this device yet start here, far above any id Twitter hands out
+    public static final long LOCAL_ID_BASE = Long.MAX_VALUE / 2;
+
+    // Send states of a tweet, see sendState
+    public static final int SENT = 0;
+    public static final int SENDING = 1;
+    public static final int SEND_FAILED = 2;
+
+    // SimpleDateFormat is not thread safe and parsing happens on background threads
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat(TWITTER_DATE_FORMAT, Locale.ENGLISH);
+            format.setLenient(true);
+            return format;
+        }
+    };
+
     @ColumnInfo
     @PrimaryKey
     public Long id;
@@ -33,6 +61,10 @@ public class Tweet {
     @ColumnInfo
     public String createdAt;
 
+    // createdAt parsed once at ingest, used for sorting so it is chronological and indexable
+    @ColumnInfo(defaultValue = "0")
+    public long createdAtMillis;
+
     @ColumnInfo
     public long userId;
 
@@ -43,21 +75,62 @@ public class Tweet {
     @ColumnInfo
     public String mediaUrl;
 
+    // Variant sizes of the photo in mediaUrl, in MediaSizes' stored form
+    @ColumnInfo
+    public String mediaSizes;
+
+    // mediaSizes parsed on first use
+    @Ignore
+    transient MediaSizes parsedMediaSizes;
+
+    // Links, mentions and hashtags in body, in TweetEntities' stored form
+    @ColumnInfo
+    public String entities;
+
+    // entities parsed on first use
+    @Ignore
+    transient TweetEntities parsedEntities;
+
     @ColumnInfo
     public boolean liked;
 
     @ColumnInfo
     public long likeCount;
 
+    // SENT for tweets from Twitter. A new tweet waiting in the Outbox is SENDING, or SEND_FAILED
+    // once the server refused it. Such a local tweet is never written to the Tweet table
+    @Ignore
+    public transient int sendState;
+
     // Empty constructor needed by Parceler Library
     public Tweet() {}
 
+    // Copy of this tweet with the like state changed, for showing a like before the server has it
+    public Tweet withLiked(boolean liked) {
+        Tweet tweet = new Tweet();
+        tweet.id = id;
+        tweet.body = body;
+        tweet.createdAt = createdAt;
+        tweet.createdAtMillis = createdAtMillis;
+        tweet.userId = userId;
+        tweet.user = user;
+        tweet.mediaUrl = mediaUrl;
+        tweet.mediaSizes = mediaSizes;
+        tweet.parsedMediaSizes = parsedMediaSizes;
+        tweet.entities = entities;
+        tweet.parsedEntities = parsedEntities;
+        tweet.liked = liked;
+        tweet.likeCount = Math.max(0, likeCount + (liked == this.liked ? 0 : liked ? 1 : -1));
+        return tweet;
+    }
+
     // Create a Tweet object from info we get from retrieved JSON object
     public static Tweet fromJson(JSONObject jsonObject) throws JSONException {
         Tweet tweet = new Tweet();
 
         tweet.body = jsonObject.getString("text");
         tweet.createdAt = jsonObject.getString("created_at");
+        tweet.createdAtMillis = parseCreatedAt(tweet.createdAt);
         tweet.id = jsonObject.getLong("id");
         tweet.mediaUrl = "";
         User user = User.fromJson(jsonObject.getJSONObject("user"));
@@ -69,16 +142,37 @@ public class Tweet {
         // Checking to see if there is any attached media and confirming that
         // it is a photo
         JSONObject entities = jsonObject.getJSONObject("entities");
+        TweetEntities tweetEntities = TweetEntities.fromJson(entities);
         if (entities.has("media")) {
             JSONObject media = entities.getJSONArray("media").getJSONObject(0);
             if (media.getString("type").equals("photo")) {
                 tweet.mediaUrl = media.getString("media_url_https");
+                JSONObject sizes = media.optJSONObject("sizes");
+                if (sizes != null) {
+                    tweet.mediaSizes = MediaSizes.fromJson(sizes).encode();
+                }
+                JSONArray indices = media.getJSONArray("indices");
+                tweetEntities.add(new TweetEntities.Entity(TweetEntities.TYPE_MEDIA,
+                        indices.getInt(0), indices.getInt(1), null, null));
             }
         }
+        tweet.entities = tweetEntities.isEmpty() ? null : tweetEntities.encode();
 
         return tweet;
     }
 
+    // Converts a raw Twitter date into epoch millis, or 0 if it cannot be parsed
+    public static long parseCreatedAt(String rawJsonDate) {
+        if (rawJsonDate == null) {
+            return 0;
+        }
+        try {
+            return DATE_FORMAT.get().parse(rawJsonDate).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
     // Will take an entire json array an construct a list of Tweet objects from it
     // as it is what we will need in our UI
     public static List<Tweet> fromJsonArray(JSONArray jsonArray) throws JSONException {
@@ -93,4 +187,163 @@ public class Tweet {
         return tweets;
     }
 
+    // Create a Tweet object by pulling tokens straight off a streamed response. Fields we never
+    // read are skipped, so no intermediate JSONObject tree is ever built for them
+    public static Tweet fromJsonReader(JsonReader reader) throws IOException {
+        Tweet tweet = new Tweet();
+        tweet.mediaUrl = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "text":
+                    tweet.body = reader.nextString();
+                    break;
+                case "created_at":
+                    tweet.createdAt = reader.nextString();
+                    tweet.createdAtMillis = parseCreatedAt(tweet.createdAt);
+                    break;
+                case "id":
+                    tweet.id = reader.nextLong();
+                    break;
+                case "user":
+                    User user = User.fromJsonReader(reader);
+                    tweet.user = user;
+                    tweet.userId = user.id;
+                    break;
+                case "favorited":
+                    tweet.liked = reader.nextBoolean();
+                    break;
+                case "favorite_count":
+                    tweet.likeCount = reader.nextLong();
+                    break;
+                case "entities":
+                    readEntities(reader, tweet);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return tweet;
+    }
+
+    // Streaming counterpart of fromJsonArray, builds each Tweet in a single pass over the array
+    public static List<Tweet> fromJsonReaderArray(JsonReader reader) throws IOException {
+        List<Tweet> tweets = new ArrayList<>();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            tweets.add(fromJsonReader(reader));
+        }
+        reader.endArray();
+
+        return tweets;
+    }
+
+    // Reads the "entities" object: the links, mentions and hashtags in the text, and the url
+    // and sizes of the first attached media if it is a photo
+    private static void readEntities(JsonReader reader, Tweet tweet) throws IOException {
+        TweetEntities tweetEntities = new TweetEntities();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "urls":
+                    tweetEntities.readArray(reader, TweetEntities.TYPE_URL);
+                    break;
+                case "user_mentions":
+                    tweetEntities.readArray(reader, TweetEntities.TYPE_MENTION);
+                    break;
+                case "hashtags":
+                    tweetEntities.readArray(reader, TweetEntities.TYPE_HASHTAG);
+                    break;
+                case "media":
+                    readPhoto(reader, tweet, tweetEntities);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        tweet.entities = tweetEntities.isEmpty() ? null : tweetEntities.encode();
+    }
+
+    // Reads the "media" array and sets the url and sizes of the first attached media if it is a
+    // photo
+    private static void readPhoto(JsonReader reader, Tweet tweet, TweetEntities tweetEntities) throws IOException {
+        reader.beginArray();
+        // For now, we will only be displaying the first image in media
+        if (reader.hasNext()) {
+            String type = "";
+            String url = "";
+            MediaSizes sizes = null;
+            int[] indices = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("type") && reader.peek() == JsonToken.STRING) {
+                    type = reader.nextString();
+                } else if (name.equals("media_url_https") && reader.peek() == JsonToken.STRING) {
+                    url = reader.nextString();
+                } else if (name.equals("sizes") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    sizes = MediaSizes.fromJsonReader(reader);
+                } else if (name.equals("indices") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    indices = TweetEntities.readIndices(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (type.equals("photo")) {
+                tweet.mediaUrl = url;
+                tweet.mediaSizes = sizes == null ? null : sizes.encode();
+                if (indices != null) {
+                    tweetEntities.add(new TweetEntities.Entity(TweetEntities.TYPE_MEDIA, indices[0], indices[1], null, null));
+                }
+            }
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+    }
+
+    // Whether this is a new tweet that only exists on this device, see sendState
+    public boolean isLocal() {
+        return sendState != SENT;
+    }
+
+    // Links, mentions and hashtags in the body, or null if there are none or they are not known
+    public TweetEntities getBodyEntities() {
+        if (parsedEntities == null) {
+            parsedEntities = TweetEntities.decode(entities);
+        }
+        return parsedEntities;
+    }
+
+    // For tweets whose entities were read in parsed form, e.g. from the timeline snapshot. Only
+    // what is displayed is set, such a copy is never written to the database
+    public void setBodyEntities(TweetEntities parsedEntities) {
+        this.parsedEntities = parsedEntities;
+    }
+
+    // Variant sizes of the attached photo, or null if they are not known
+    public MediaSizes getMediaSizes() {
+        if (parsedMediaSizes == null) {
+            parsedMediaSizes = MediaSizes.decode(mediaSizes);
+        }
+        return parsedMediaSizes;
+    }
+
 }
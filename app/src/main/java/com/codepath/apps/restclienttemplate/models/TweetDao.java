@@ -1,19 +1,111 @@
 package com.codepath.apps.restclienttemplate.models;
 
 import androidx.room.Dao;
+import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Update;
 
 import java.util.List;
 
 @Dao
 public interface TweetDao {
 
-    @Query("SELECT Tweet.body AS tweet_body, Tweet.createdAt AS tweet_createdAt, Tweet.mediaUrl as tweet_mediaUrl, " +
-            "Tweet.liked AS tweet_liked, Tweet.likeCount AS tweet_likeCount, Tweet.id AS tweet_id, User.*" +
-            " FROM Tweet INNER JOIN User ON Tweet.userId = User.id ORDER BY createdAt DESC LIMIT 15")
-    List<TweetWithUser> recentItems();
+    String TWEET_WITH_USER_COLUMNS = "Tweet.body AS tweet_body, Tweet.createdAt AS tweet_createdAt, " +
+            "Tweet.createdAtMillis AS tweet_createdAtMillis, Tweet.userId AS tweet_userId, Tweet.mediaUrl as tweet_mediaUrl, " +
+            "Tweet.mediaSizes AS tweet_mediaSizes, Tweet.entities AS tweet_entities, Tweet.liked AS tweet_liked, Tweet.likeCount AS tweet_likeCount, Tweet.id AS tweet_id, User.*";
+
+    // First page of the timeline, newest first
+    @Query("SELECT " + TWEET_WITH_USER_COLUMNS +
+            " FROM Tweet INNER JOIN User ON Tweet.userId = User.id" +
+            " ORDER BY Tweet.createdAtMillis DESC, Tweet.id DESC LIMIT :limit")
+    List<TweetWithUser> recentItems(int limit);
+
+    // Keyset pagination: the page of tweets that sorts right after the (createdAtMillis, id) of
+    // the last tweet already loaded, so no OFFSET scan is needed however deep the user scrolls
+    @Query("SELECT " + TWEET_WITH_USER_COLUMNS +
+            " FROM Tweet INNER JOIN User ON Tweet.userId = User.id" +
+            " WHERE Tweet.createdAtMillis < :createdAtMillis" +
+            " OR (Tweet.createdAtMillis = :createdAtMillis AND Tweet.id < :id)" +
+            " ORDER BY Tweet.createdAtMillis DESC, Tweet.id DESC LIMIT :limit")
+    List<TweetWithUser> itemsBefore(long createdAtMillis, long id, int limit);
+
+    // The other direction, for a timeline window scrolling back up: the page of tweets that sorts
+    // right before the (createdAtMillis, id) of the first tweet loaded, oldest first
+    @Query("SELECT " + TWEET_WITH_USER_COLUMNS +
+            " FROM Tweet INNER JOIN User ON Tweet.userId = User.id" +
+            " WHERE Tweet.createdAtMillis > :createdAtMillis" +
+            " OR (Tweet.createdAtMillis = :createdAtMillis AND Tweet.id > :id)" +
+            " ORDER BY Tweet.createdAtMillis ASC, Tweet.id ASC LIMIT :limit")
+    List<TweetWithUser> itemsAfter(long createdAtMillis, long id, int limit);
+
+    // Full-text search over tweet bodies and author names. Tweets with more hits in their indexed
+    // text rank first, newest first among equals. offsets() lists four space-separated integers
+    // per hit, so the hit count is its number of integers divided by four
+    @Query("SELECT " + TWEET_WITH_USER_COLUMNS +
+            " FROM TweetFts INNER JOIN Tweet ON Tweet.id = TweetFts.rowid" +
+            " INNER JOIN User ON Tweet.userId = User.id" +
+            " WHERE TweetFts MATCH :matchQuery" +
+            " ORDER BY (length(offsets(TweetFts)) - length(replace(offsets(TweetFts), ' ', '')) + 1) / 4 DESC," +
+            " Tweet.id DESC LIMIT :limit OFFSET :offset")
+    List<TweetWithUser> search(String matchQuery, int limit, int offset);
+
+    // One cached tweet with its author, null if it is not cached
+    @Query("SELECT " + TWEET_WITH_USER_COLUMNS +
+            " FROM Tweet INNER JOIN User ON Tweet.userId = User.id WHERE Tweet.id = :id")
+    TweetWithUser itemById(long id);
+
+    // Id of the newest cached tweet, null when the cache is empty
+    @Query("SELECT MAX(id) FROM Tweet")
+    Long newestId();
+
+    // The newest gap that starts inside [lowId, highId), i.e. inside a page spanning those ids
+    @Query("SELECT * FROM TimelineGap WHERE maxId >= :lowId AND maxId < :highId ORDER BY maxId DESC LIMIT 1")
+    TimelineGap gapWithin(long lowId, long highId);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertGap(TimelineGap gap);
+
+    @Delete
+    void deleteGap(TimelineGap gap);
+
+    @Query("SELECT COUNT(*) FROM Tweet")
+    int countTweets();
+
+    // Retention: tweets older than the cutoff
+    @Query("DELETE FROM Tweet WHERE createdAtMillis < :cutoffMillis")
+    int deleteOlderThan(long cutoffMillis);
+
+    // Retention: everything but the newest maxRows tweets
+    @Query("DELETE FROM Tweet WHERE id NOT IN (SELECT id FROM Tweet ORDER BY createdAtMillis DESC, id DESC LIMIT :maxRows)")
+    int trimToNewest(int maxRows);
+
+    // Retention: users none of the remaining tweets point to
+    @Query("DELETE FROM User WHERE id NOT IN (SELECT DISTINCT userId FROM Tweet)")
+    int deleteOrphanUsers();
+
+    // Retention: gaps that lie entirely below the oldest remaining tweet can never be reached
+    @Query("DELETE FROM TimelineGap WHERE maxId < (SELECT IFNULL(MIN(id), 9223372036854775807) FROM Tweet)")
+    int deleteUnreachableGaps();
+
+    // Optimistic like or unlike, applied before the Outbox has sent it
+    @Query("UPDATE Tweet SET liked = :liked, likeCount = MAX(0, likeCount + :delta) WHERE id = :id")
+    void applyLike(long id, boolean liked, int delta);
+
+    // Insert half of an upsert: rows whose id already exists are skipped and reported as -1
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long[] insertUsersIfAbsent(List<User> users);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long[] insertTweetsIfAbsent(List<Tweet> tweets);
+
+    // Update half of an upsert, for the rows the insert skipped
+    @Update
+    void updateUsers(List<User> users);
+
+    @Update
+    void updateTweets(List<Tweet> tweets);
 
     // Ellipses mean that this method can take any number of Tweet objects in as an array
     @Insert(onConflict = OnConflictStrategy.REPLACE)
@@ -0,0 +1,167 @@
+package com.codepath.apps.restclienttemplate.models;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * The urls, mentions, hashtags and attached photo link found in a tweet's text, extracted once
+ * from the "entities" object at ingest so the UI never has to scan the text for links.
+ *
+ * Ranges are kept as Twitter sends them, in code points of the tweet text. Stored on the Tweet
+ * as a JSON array of [type, start, end, value, display] entries.
+ */
+public class TweetEntities {
+
+    public static final int TYPE_URL = 0;
+    public static final int TYPE_MENTION = 1;
+    public static final int TYPE_HASHTAG = 2;
+    // The t.co link to the attached photo, which is shown as the photo instead
+    public static final int TYPE_MEDIA = 3;
+
+    public static class Entity {
+        public final int type;
+        public final int start;
+        public final int end;
+        // Expanded url, screen name or hashtag text
+        public final String value;
+        // Shortened form of a url to show in its place, null for other types
+        public final String display;
+
+        public Entity(int type, int start, int end, String value, String display) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+            this.value = value;
+            this.display = display;
+        }
+    }
+
+    private final List<Entity> entities = new ArrayList<>();
+
+    public List<Entity> getEntities() {
+        return Collections.unmodifiableList(entities);
+    }
+
+    public boolean isEmpty() {
+        return entities.isEmpty();
+    }
+
+    public void add(Entity entity) {
+        entities.add(entity);
+    }
+
+    // Reads one entity array ("urls", "user_mentions" or "hashtags") off a streamed response
+    public void readArray(JsonReader reader, int type) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int[] indices = null;
+            String value = null;
+            String display = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.skipValue();
+                } else if (name.equals("indices")) {
+                    indices = readIndices(reader);
+                } else if (name.equals(valueKey(type))) {
+                    value = reader.nextString();
+                } else if (name.equals("display_url")) {
+                    display = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (indices != null && value != null) {
+                entities.add(new Entity(type, indices[0], indices[1], value, display));
+            }
+        }
+        reader.endArray();
+    }
+
+    // Reads an [start, end] pair
+    public static int[] readIndices(JsonReader reader) throws IOException {
+        int[] indices = new int[2];
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            if (i < indices.length) {
+                indices[i] = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+        return indices;
+    }
+
+    // Builds the entities from the "entities" object of a tweet
+    public static TweetEntities fromJson(JSONObject jsonObject) throws JSONException {
+        TweetEntities tweetEntities = new TweetEntities();
+        int[] types = {TYPE_URL, TYPE_MENTION, TYPE_HASHTAG};
+        String[] keys = {"urls", "user_mentions", "hashtags"};
+        for (int i = 0; i < types.length; i++) {
+            JSONArray array = jsonObject.optJSONArray(keys[i]);
+            for (int j = 0; array != null && j < array.length(); j++) {
+                JSONObject entity = array.getJSONObject(j);
+                JSONArray indices = entity.getJSONArray("indices");
+                tweetEntities.add(new Entity(types[i], indices.getInt(0), indices.getInt(1),
+                        entity.getString(valueKey(types[i])),
+                        entity.isNull("display_url") ? null : entity.getString("display_url")));
+            }
+        }
+        return tweetEntities;
+    }
+
+    // Parses the stored form, or returns null if there is none (tweets cached before it existed)
+    public static TweetEntities decode(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return null;
+        }
+        TweetEntities tweetEntities = new TweetEntities();
+        try {
+            JSONArray array = new JSONArray(encoded);
+            for (int i = 0; i < array.length(); i++) {
+                JSONArray entity = array.getJSONArray(i);
+                tweetEntities.add(new Entity(entity.getInt(0), entity.getInt(1), entity.getInt(2),
+                        entity.isNull(3) ? null : entity.getString(3),
+                        entity.isNull(4) ? null : entity.getString(4)));
+            }
+        } catch (JSONException e) {
+            return null;
+        }
+        return tweetEntities;
+    }
+
+    public String encode() {
+        JSONArray array = new JSONArray();
+        for (Entity entity : entities) {
+            JSONArray encoded = new JSONArray();
+            encoded.put(entity.type).put(entity.start).put(entity.end)
+                    .put(entity.value == null ? JSONObject.NULL : entity.value)
+                    .put(entity.display == null ? JSONObject.NULL : entity.display);
+            array.put(encoded);
+        }
+        return array.toString();
+    }
+
+    private static String valueKey(int type) {
+        switch (type) {
+            case TYPE_MENTION:
+                return "screen_name";
+            case TYPE_HASHTAG:
+                return "text";
+            default:
+                return "expanded_url";
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.codepath.apps.restclienttemplate.models;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.PrimaryKey;
+
+/*
+ * Full-text shadow table over the searchable text of a tweet: its body and its author's name
+ * and screen name. The rowid is the tweet id. Rows are maintained by SQL triggers on Tweet and
+ * User (see MyDatabase), so every insert, update and compaction keeps the index in sync.
+ */
+@Fts4
+@Entity
+public class TweetFts {
+
+    @ColumnInfo(name = "rowid")
+    @PrimaryKey
+    public long rowid;
+
+    @ColumnInfo
+    public String body;
+
+    @ColumnInfo
+    public String name;
+
+    @ColumnInfo
+    public String screenName;
+}
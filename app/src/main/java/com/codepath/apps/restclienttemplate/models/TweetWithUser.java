@@ -22,8 +22,9 @@ public class TweetWithUser {
             Tweet tweet = tweetWithUsers.get(i).tweet;
             // Define the user of the tweet as Room does has flattened the connection between the
             // two objects so that the tweet field of TweetWithUser does not have fully-materialized
-            // user inside of it as it used to
-            tweet.user = tweetWithUsers.get(i).user;
+            // user inside of it as it used to. Stored copies resolve to the shared object for
+            // that user, if one is already loaded
+            tweet.user = UserIdentityMap.getInstance().resolve(tweetWithUsers.get(i).user);
             tweets.add(tweet);
         }
 
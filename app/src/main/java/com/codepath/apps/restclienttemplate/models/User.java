@@ -1,5 +1,8 @@
 package com.codepath.apps.restclienttemplate.models;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
+
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.PrimaryKey;
@@ -8,6 +11,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.parceler.Parcel;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -34,11 +38,46 @@ public class User {
     public static User fromJson(JSONObject jsonObject) throws JSONException {
         User user = new User();
 
+        user.id = jsonObject.getLong("id");
         user.name = jsonObject.getString("name");
         user.screenName = jsonObject.getString("screen_name");
         user.publicImageUrl = jsonObject.getString("profile_image_url_https");
 
-        return user;
+        // Hand back the one shared object for this user, updated with what we just parsed
+        return UserIdentityMap.getInstance().intern(user);
+    }
+
+    // Streaming counterpart of fromJson, reads the nested "user" object of a tweet in place
+    public static User fromJsonReader(JsonReader reader) throws IOException {
+        User user = new User();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    user.id = reader.nextLong();
+                    break;
+                case "name":
+                    user.name = reader.nextString();
+                    break;
+                case "screen_name":
+                    user.screenName = reader.nextString();
+                    break;
+                case "profile_image_url_https":
+                    user.publicImageUrl = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return UserIdentityMap.getInstance().intern(user);
     }
 
     public static List<User> fromJsonTweetArray(List<Tweet> tweetsFromNetwork) {
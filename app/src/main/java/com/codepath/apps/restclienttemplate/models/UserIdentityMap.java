@@ -0,0 +1,148 @@
+package com.codepath.apps.restclienttemplate.models;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.core.util.ObjectsCompat;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * Interning identity map for users, keyed by Twitter user id. Parsing, database reads and the
+ * persister all resolve users through it, so each user is a single object however many of
+ * their tweets are loaded, and a change to their name or avatar reaches every row at once.
+ *
+ * Entries are held weakly, so a user lives exactly as long as something still references them,
+ * plus a small LRU of strong references that keeps frequent posters around between pages.
+ */
+public class UserIdentityMap {
+
+    // Users kept alive by the map itself even when nothing else references them
+    private static final int MAX_STRONG_ENTRIES = 200;
+
+    private static final UserIdentityMap INSTANCE = new UserIdentityMap();
+
+    // Notified on the main thread when a canonical user's profile changed
+    public interface Listener {
+        void onUserChanged(User user);
+    }
+
+    private final Map<Long, UserReference> users = new HashMap<>();
+    private final ReferenceQueue<User> collected = new ReferenceQueue<>();
+    private final LinkedHashMap<Long, User> recent = new LinkedHashMap<Long, User>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, User> eldest) {
+            return size() > MAX_STRONG_ENTRIES;
+        }
+    };
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private static class UserReference extends WeakReference<User> {
+        final long id;
+
+        UserReference(User user, ReferenceQueue<User> queue) {
+            super(user, queue);
+            this.id = user.id;
+        }
+    }
+
+    public static UserIdentityMap getInstance() {
+        return INSTANCE;
+    }
+
+    // Resolves a freshly parsed user: the canonical object is returned, updated in place with
+    // the parsed profile, or the parsed user becomes canonical if this id is not known yet
+    public User intern(User parsed) {
+        User canonical;
+        boolean changed = false;
+        synchronized (this) {
+            canonical = lookup(parsed.id);
+            if (canonical == null) {
+                register(parsed);
+                return parsed;
+            }
+            if (!ObjectsCompat.equals(canonical.name, parsed.name)
+                    || !ObjectsCompat.equals(canonical.screenName, parsed.screenName)
+                    || !ObjectsCompat.equals(canonical.publicImageUrl, parsed.publicImageUrl)) {
+                canonical.name = parsed.name;
+                canonical.screenName = parsed.screenName;
+                canonical.publicImageUrl = parsed.publicImageUrl;
+                changed = true;
+            }
+        }
+        if (changed) {
+            notifyChanged(canonical);
+        }
+        return canonical;
+    }
+
+    // Resolves a user read back from storage: a possibly older copy, so it never overwrites the
+    // canonical object and only becomes canonical if this id is not known yet
+    public synchronized User resolve(User stored) {
+        User canonical = lookup(stored.id);
+        if (canonical == null) {
+            register(stored);
+            return stored;
+        }
+        return canonical;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized int size() {
+        purge();
+        return users.size();
+    }
+
+    private User lookup(long id) {
+        purge();
+        UserReference reference = users.get(id);
+        User user = reference == null ? null : reference.get();
+        if (user != null) {
+            recent.put(id, user);
+        }
+        return user;
+    }
+
+    private void register(User user) {
+        users.put(user.id, new UserReference(user, collected));
+        recent.put(user.id, user);
+    }
+
+    // Drops the entries of users that have been garbage collected
+    private void purge() {
+        UserReference reference;
+        while ((reference = (UserReference) collected.poll()) != null) {
+            if (users.get(reference.id) == reference) {
+                users.remove(reference.id);
+            }
+        }
+    }
+
+    private void notifyChanged(final User user) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onUserChanged(user);
+                }
+            }
+        });
+    }
+}
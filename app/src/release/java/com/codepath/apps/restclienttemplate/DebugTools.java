@@ -0,0 +1,13 @@
+package com.codepath.apps.restclienttemplate;
+
+import android.content.Context;
+
+/*
+ * Release builds ship without developer tools, see the debug source set.
+ */
+public final class DebugTools {
+
+    private DebugTools() {}
+
+    public static void init(Context context) {}
+}
@@ -0,0 +1,134 @@
+package com.codepath.apps.restclienttemplate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ * Microbenchmark of CompactCountFormatter against TweetsAdapter.getFormattedCount, the method it
+ * replaced, over the same counts: a fixed random mix of like counts, most of them small, each
+ * formatted ROUNDS times as rows are rebound while scrolling. Prints the time per count of each.
+ * Only the labels both methods agree on are asserted, timings vary too much between machines.
+ */
+public class CompactCountFormatterBenchmarkTest {
+
+    private static final int COUNTS = 1000;
+    private static final int ROUNDS = 200;
+    private static final int WARM_UP_RUNS = 3;
+    private static final int RUNS = 5;
+
+    // Keeps the JIT from dropping the formatting whose result is otherwise unused
+    private static volatile int sink;
+
+    private Locale defaultLocale;
+
+    @Before
+    public void setUp() {
+        defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.US);
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(defaultLocale);
+    }
+
+    @Test
+    public void formatsFasterThanGetFormattedCount() {
+        long[] counts = counts();
+        CompactCountFormatter formatter = CompactCountFormatter.getInstance();
+
+        // Counts the old method got right: exact below 10,000, and whole thousands
+        assertEquals(getFormattedCount(9999), formatter.format(9999));
+        assertEquals(getFormattedCount(42000), formatter.format(42000));
+
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            sink += formatAll(formatter, counts);
+            sink += formatAllOld(counts);
+        }
+        long formatterNanos = Long.MAX_VALUE;
+        long oldNanos = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            sink += formatAll(formatter, counts);
+            formatterNanos = Math.min(formatterNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            sink += formatAllOld(counts);
+            oldNanos = Math.min(oldNanos, System.nanoTime() - start);
+        }
+
+        long formatted = (long) COUNTS * ROUNDS;
+        System.out.println("Formatting " + formatted + " counts: CompactCountFormatter "
+                + formatterNanos / formatted + "ns/count, getFormattedCount " + oldNanos / formatted + "ns/count");
+    }
+
+    // Mostly small counts, as on a real timeline, with a tail up to the millions
+    private static long[] counts() {
+        Random random = new Random(42);
+        long[] counts = new long[COUNTS];
+        for (int i = 0; i < COUNTS; i++) {
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                counts[i] = random.nextInt(100);
+            } else if (kind < 8) {
+                counts[i] = random.nextInt(10000);
+            } else if (kind < 9) {
+                counts[i] = 10000 + random.nextInt(990000);
+            } else {
+                counts[i] = 1000000 + random.nextInt(9000000);
+            }
+        }
+        return counts;
+    }
+
+    private static int formatAll(CompactCountFormatter formatter, long[] counts) {
+        int length = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (long count : counts) {
+                length += formatter.format(count).length();
+            }
+        }
+        return length;
+    }
+
+    private static int formatAllOld(long[] counts) {
+        int length = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (long count : counts) {
+                length += getFormattedCount(count).length();
+            }
+        }
+        return length;
+    }
+
+    // TweetsAdapter.getFormattedCount as it was before CompactCountFormatter replaced it
+    private static String getFormattedCount(long count) {
+        String formattedCount = "";
+        String quantifier = "";
+        int powerOfTen = 1;
+        if(count < 10000) {
+            formattedCount = String.format("%d", count);
+        } else if(count < 1000000) {
+            powerOfTen = 1000;
+            quantifier = "K";
+        } else if (count < 10000000) {
+            powerOfTen = 1000000;
+            quantifier = "M";
+        }
+
+        long remainder = count % powerOfTen;
+        String remainderDigit = Long.toString(remainder).substring(0, 1);
+        if(remainderDigit.equals("0")) {
+            formattedCount = String.format("%d%s", count / powerOfTen, quantifier);
+        } else {
+            formattedCount = String.format("%d.%s%s", count / powerOfTen, remainderDigit, quantifier);
+        }
+
+        return formattedCount;
+    }
+}
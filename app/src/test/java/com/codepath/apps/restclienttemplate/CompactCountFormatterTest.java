@@ -0,0 +1,83 @@
+package com.codepath.apps.restclienttemplate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompactCountFormatterTest {
+
+    private Locale defaultLocale;
+    private CompactCountFormatter formatter;
+
+    @Before
+    public void setUp() {
+        defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.US);
+        formatter = CompactCountFormatter.getInstance();
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(defaultLocale);
+    }
+
+    @Test
+    public void formatsSmallCountsInFull() {
+        assertEquals("0", formatter.format(0));
+        assertEquals("7", formatter.format(7));
+        assertEquals("9999", formatter.format(9999));
+    }
+
+    @Test
+    public void formatsOneRoundedDecimal() {
+        assertEquals("10K", formatter.format(10000));
+        assertEquals("50.1K", formatter.format(50125));
+        assertEquals("50.2K", formatter.format(50150));
+        assertEquals("99.9K", formatter.format(99949));
+        assertEquals("1.3M", formatter.format(1250000));
+        assertEquals("2B", formatter.format(2000000000L));
+    }
+
+    @Test
+    public void roundsToWholeUnitsFromOneHundred() {
+        assertEquals("100K", formatter.format(99960));
+        assertEquals("150K", formatter.format(150400));
+        assertEquals("150K", formatter.format(150450));
+        assertEquals("151K", formatter.format(150500));
+        assertEquals("151K", formatter.format(150600));
+        assertEquals("151K", formatter.format(150949));
+        assertEquals("999K", formatter.format(999499));
+    }
+
+    @Test
+    public void carriesIntoTheNextUnit() {
+        assertEquals("1M", formatter.format(999500));
+        assertEquals("1M", formatter.format(999600));
+        assertEquals("1M", formatter.format(999960));
+        assertEquals("1B", formatter.format(999600000L));
+    }
+
+    @Test
+    public void formatsCountsBeyondTheLargestUnit() {
+        assertEquals("1000B", formatter.format(999999999999L));
+        assertEquals("1235B", formatter.format(1234567890123L));
+        assertEquals("9223372037B", formatter.format(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void returnsTheSameLabelForTheSameValue() {
+        String label = formatter.format(150600);
+        assertEquals(label, formatter.format(150600));
+        assertEquals("151K", formatter.format(150500));
+    }
+
+    @Test
+    public void usesTheDecimalSeparatorOfTheLocale() {
+        Locale.setDefault(Locale.GERMANY);
+        assertEquals("50,1K", CompactCountFormatter.getInstance().format(50125));
+    }
+}
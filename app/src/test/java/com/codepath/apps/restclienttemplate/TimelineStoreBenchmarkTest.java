@@ -0,0 +1,128 @@
+package com.codepath.apps.restclienttemplate;
+
+import com.codepath.apps.restclienttemplate.models.Tweet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ * Microbenchmark of TimelineStore against the list it replaced, which was deduplicated by a
+ * linear scan and re-sorted after every page. Builds a timeline of TIMELINE_SIZE tweets from
+ * head, tail and gap pages of the app's page size, checks both end up the same, and prints the
+ * time each took. Only correctness is asserted, timings vary too much between machines.
+ */
+public class TimelineStoreBenchmarkTest {
+
+    private static final int TIMELINE_SIZE = 20000;
+    private static final int PAGE_SIZE = TimelinePager.PAGE_SIZE;
+    private static final int WARM_UP_RUNS = 3;
+    private static final int RUNS = 5;
+
+    @Test
+    public void mergesPagesFasterThanSortedList() {
+        List<List<Tweet>> pages = pages();
+
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            mergeIntoStore(pages);
+            mergeIntoList(pages);
+        }
+        long storeNanos = Long.MAX_VALUE;
+        long listNanos = Long.MAX_VALUE;
+        TimelineStore store = null;
+        List<Tweet> list = null;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            store = mergeIntoStore(pages);
+            storeNanos = Math.min(storeNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            list = mergeIntoList(pages);
+            listNanos = Math.min(listNanos, System.nanoTime() - start);
+        }
+
+        assertEquals(list.size(), store.size());
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(list.get(i).id, store.get(i).id);
+        }
+        System.out.println("Merging " + pages.size() + " pages into " + TIMELINE_SIZE + " tweets: TimelineStore "
+                + storeNanos / 1000000 + "ms, sorted list " + listNanos / 1000000 + "ms");
+    }
+
+    @Test
+    public void looksUpPositionsAfterWindowDrops() {
+        List<List<Tweet>> pages = pages();
+        TimelineStore store = mergeIntoStore(pages);
+
+        long start = System.nanoTime();
+        int lookups = 0;
+        while (store.size() > PAGE_SIZE) {
+            store.removeNewest(PAGE_SIZE / 2);
+            store.removeOldest(PAGE_SIZE / 2);
+            for (int i = 0; i < store.size(); i += PAGE_SIZE) {
+                assertEquals(i, store.indexOf(store.get(i).id));
+                lookups++;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println(lookups + " lookups while dropping the timeline a page at a time: " + nanos / 1000000 + "ms");
+    }
+
+    // The timeline in pages: every other page first, newest first like a refresh followed by
+    // scrolling, then the pages in between as gap fills. Pages overlap by one tweet
+    private static List<List<Tweet>> pages() {
+        List<List<Tweet>> spaced = new ArrayList<>();
+        List<List<Tweet>> gaps = new ArrayList<>();
+        for (int top = TIMELINE_SIZE; top > 0; top -= PAGE_SIZE) {
+            List<Tweet> page = new ArrayList<>();
+            for (int offset = top; offset > Math.max(0, top - PAGE_SIZE - 1); offset--) {
+                page.add(TimelineStoreTest.tweet(offset));
+            }
+            if ((top / PAGE_SIZE) % 2 == 0) {
+                spaced.add(page);
+            } else {
+                gaps.add(page);
+            }
+        }
+        List<List<Tweet>> pages = new ArrayList<>(spaced);
+        pages.addAll(gaps);
+        return pages;
+    }
+
+    private static TimelineStore mergeIntoStore(List<List<Tweet>> pages) {
+        TimelineStore store = new TimelineStore();
+        for (List<Tweet> page : pages) {
+            store.merge(page);
+        }
+        return store;
+    }
+
+    private static List<Tweet> mergeIntoList(List<List<Tweet>> pages) {
+        List<Tweet> list = new ArrayList<>();
+        Comparator<Tweet> newestFirst = new Comparator<Tweet>() {
+            @Override
+            public int compare(Tweet a, Tweet b) {
+                return Long.compare(b.id, a.id);
+            }
+        };
+        for (List<Tweet> page : pages) {
+            Set<Long> ids = new HashSet<>();
+            for (Tweet tweet : list) {
+                ids.add(tweet.id);
+            }
+            for (Tweet tweet : page) {
+                if (ids.add(tweet.id)) {
+                    list.add(tweet);
+                }
+            }
+            Collections.sort(list, newestFirst);
+        }
+        return list;
+    }
+}
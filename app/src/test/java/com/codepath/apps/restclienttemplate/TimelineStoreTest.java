@@ -0,0 +1,340 @@
+package com.codepath.apps.restclienttemplate;
+
+import com.codepath.apps.restclienttemplate.models.Tweet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TimelineStoreTest {
+
+    // Above the range of boxed Longs the JVM caches, like real tweet ids
+    private static final long BASE_ID = 1300000000000000000L;
+
+    private TimelineStore store;
+    private int changes;
+
+    @Before
+    public void setUp() {
+        store = new TimelineStore();
+        store.setListener(new TimelineStore.Listener() {
+            @Override
+            public void onTimelineChanged() {
+                changes++;
+            }
+        });
+    }
+
+    @Test
+    public void mergeSortsNewestFirst() {
+        TimelineStore.MergeResult result = store.merge(page(3, 7, 5));
+
+        assertIds(7, 5, 3);
+        assertEquals(3, result.insertedCount);
+        assertRanges(result, 0, 3);
+        assertEquals(1, changes);
+    }
+
+    @Test
+    public void mergesNewerPageAtTheHead() {
+        store.merge(page(5, 4, 3));
+
+        TimelineStore.MergeResult result = store.merge(page(8, 7, 6));
+
+        assertIds(8, 7, 6, 5, 4, 3);
+        assertRanges(result, 0, 3);
+    }
+
+    @Test
+    public void mergesOlderPageAtTheTail() {
+        store.merge(page(8, 7, 6));
+
+        TimelineStore.MergeResult result = store.merge(page(5, 4, 3));
+
+        assertIds(8, 7, 6, 5, 4, 3);
+        assertRanges(result, 3, 3);
+    }
+
+    @Test
+    public void mergesGapPageInBetween() {
+        store.merge(page(9, 8, 2, 1));
+
+        TimelineStore.MergeResult result = store.merge(page(8, 6, 5, 4, 2));
+
+        assertIds(9, 8, 6, 5, 4, 2, 1);
+        assertEquals(3, result.insertedCount);
+        assertEquals(2, result.updatedCount);
+        assertRanges(result, 2, 3);
+    }
+
+    @Test
+    public void reportsOneRangePerInsertionPoint() {
+        store.merge(page(10, 7, 4));
+
+        // 12 and 11 go before 10, 9 and 8 before 7, 2 after 4
+        TimelineStore.MergeResult result = store.merge(page(2, 12, 9, 11, 8));
+
+        assertIds(12, 11, 10, 9, 8, 7, 4, 2);
+        assertRanges(result, 0, 2, 3, 2, 7, 1);
+    }
+
+    @Test
+    public void replacesTweetsAlreadyPresent() {
+        store.merge(page(3, 2, 1));
+        Tweet newer = tweet(2);
+
+        TimelineStore.MergeResult result = store.merge(Collections.singletonList(newer));
+
+        assertIds(3, 2, 1);
+        assertEquals(0, result.insertedCount);
+        assertEquals(1, result.updatedCount);
+        assertSame(newer, store.find(BASE_ID + 2));
+    }
+
+    @Test
+    public void keepsTheLaterCopyOfDuplicatesWithinAPage() {
+        Tweet first = tweet(5);
+        Tweet second = tweet(5);
+
+        TimelineStore.MergeResult result = store.merge(Arrays.asList(first, tweet(4), second));
+
+        assertIds(5, 4);
+        assertEquals(2, result.insertedCount);
+        assertSame(second, store.find(BASE_ID + 5));
+    }
+
+    @Test
+    public void keepsTheLaterCopyOfDuplicatesOfATweetAlreadyPresent() {
+        store.merge(page(5, 4));
+        Tweet first = tweet(5);
+        Tweet second = tweet(5);
+
+        TimelineStore.MergeResult result = store.merge(Arrays.asList(first, second));
+
+        assertIds(5, 4);
+        assertEquals(0, result.insertedCount);
+        assertSame(second, store.find(BASE_ID + 5));
+    }
+
+    @Test
+    public void emptyMergeDoesNotNotify() {
+        store.merge(page(2, 1));
+        changes = 0;
+
+        TimelineStore.MergeResult result = store.merge(new ArrayList<Tweet>());
+
+        assertEquals(true, result.isEmpty());
+        assertEquals(0, changes);
+    }
+
+    @Test
+    public void indexOfFollowsMerges() {
+        store.merge(page(9, 5, 1));
+        assertEquals(1, store.indexOf(BASE_ID + 5));
+
+        store.merge(page(7, 3));
+
+        assertEquals(0, store.indexOf(BASE_ID + 9));
+        assertEquals(1, store.indexOf(BASE_ID + 7));
+        assertEquals(2, store.indexOf(BASE_ID + 5));
+        assertEquals(3, store.indexOf(BASE_ID + 3));
+        assertEquals(4, store.indexOf(BASE_ID + 1));
+        assertEquals(-1, store.indexOf(BASE_ID + 4));
+    }
+
+    @Test
+    public void indexOfAfterRemoveNewest() {
+        store.merge(page(6, 5, 4, 3, 2, 1));
+        // Index every position first, so stale entries would be found
+        assertEquals(5, store.indexOf(BASE_ID + 1));
+
+        store.removeNewest(2);
+
+        assertIds(4, 3, 2, 1);
+        assertEquals(-1, store.indexOf(BASE_ID + 6));
+        assertEquals(-1, store.indexOf(BASE_ID + 5));
+        assertEquals(0, store.indexOf(BASE_ID + 4));
+        assertEquals(3, store.indexOf(BASE_ID + 1));
+        assertNull(store.find(BASE_ID + 6));
+    }
+
+    @Test
+    public void indexOfAfterRemoveOldest() {
+        store.merge(page(6, 5, 4, 3, 2, 1));
+        assertEquals(5, store.indexOf(BASE_ID + 1));
+
+        store.removeOldest(2);
+
+        assertIds(6, 5, 4, 3);
+        assertEquals(-1, store.indexOf(BASE_ID + 2));
+        assertEquals(-1, store.indexOf(BASE_ID + 1));
+        assertEquals(3, store.indexOf(BASE_ID + 3));
+        assertNull(store.find(BASE_ID + 1));
+    }
+
+    @Test
+    public void removedTweetsCanBeMergedBack() {
+        store.merge(page(6, 5, 4, 3, 2, 1));
+        store.removeNewest(2);
+        store.removeOldest(2);
+
+        TimelineStore.MergeResult newer = store.merge(page(6, 5));
+        TimelineStore.MergeResult older = store.merge(page(2, 1));
+
+        assertIds(6, 5, 4, 3, 2, 1);
+        assertRanges(newer, 0, 2);
+        assertRanges(older, 4, 2);
+        assertEquals(0, store.indexOf(BASE_ID + 6));
+        assertEquals(5, store.indexOf(BASE_ID + 1));
+    }
+
+    @Test
+    public void removesNoMoreThanItHolds() {
+        store.merge(page(2, 1));
+
+        store.removeNewest(5);
+        assertEquals(0, store.size());
+
+        store.merge(page(2, 1));
+        store.removeOldest(5);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void removeNewestKeepsLocalTweets() {
+        store.merge(page(4, 3, 2, 1));
+        store.merge(Collections.singletonList(localTweet(1)));
+        assertEquals(4, store.indexOf(BASE_ID + 1));
+
+        store.removeNewest(2);
+
+        assertEquals(3, store.size());
+        assertEquals(Tweet.LOCAL_ID_BASE + 1, (long) store.get(0).id);
+        assertEquals(BASE_ID + 2, (long) store.get(1).id);
+        assertEquals(-1, store.indexOf(BASE_ID + 4));
+        assertEquals(0, store.indexOf(Tweet.LOCAL_ID_BASE + 1));
+        assertEquals(2, store.indexOf(BASE_ID + 1));
+    }
+
+    @Test
+    public void updateReplacesOnlyTweetsPresent() {
+        store.merge(page(2, 1));
+        Tweet newer = tweet(1);
+
+        assertEquals(1, store.update(newer));
+        assertEquals(-1, store.update(tweet(3)));
+
+        assertSame(newer, store.get(1));
+        assertIds(2, 1);
+    }
+
+    @Test
+    public void replaceSwapsOneTweetForAnother() {
+        store.merge(page(5, 3, 1));
+        changes = 0;
+
+        store.replace(BASE_ID + 5, tweet(2));
+
+        assertIds(3, 2, 1);
+        assertEquals(1, store.indexOf(BASE_ID + 2));
+        assertEquals(-1, store.indexOf(BASE_ID + 5));
+        assertEquals(1, changes);
+    }
+
+    @Test
+    public void removeDropsOnlyTweetsPresent() {
+        store.merge(page(5, 3, 1));
+        assertEquals(2, store.indexOf(BASE_ID + 1));
+        changes = 0;
+
+        store.remove(BASE_ID + 3);
+        store.remove(BASE_ID + 4);
+
+        assertIds(5, 1);
+        assertEquals(1, store.indexOf(BASE_ID + 1));
+        assertEquals(1, changes);
+    }
+
+    @Test
+    public void replaceAllStartsOver() {
+        store.merge(page(9, 8, 7));
+
+        store.replaceAll(page(3, 2));
+
+        assertIds(3, 2);
+        assertEquals(-1, store.indexOf(BASE_ID + 9));
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        List<Tweet> page = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            page.add(tweet(i * 2));
+        }
+        store.merge(page);
+        List<Tweet> between = new ArrayList<>();
+        for (int i = 0; i < 999; i++) {
+            between.add(tweet(i * 2 + 1));
+        }
+
+        store.merge(between);
+
+        assertEquals(1999, store.size());
+        for (int i = 0; i < store.size(); i++) {
+            assertEquals(BASE_ID + 1998 - i, (long) store.get(i).id);
+            assertEquals(i, store.indexOf(BASE_ID + 1998 - i));
+        }
+    }
+
+    static Tweet tweet(long offset) {
+        Tweet tweet = new Tweet();
+        tweet.id = BASE_ID + offset;
+        return tweet;
+    }
+
+    private static Tweet localTweet(long offset) {
+        Tweet tweet = new Tweet();
+        tweet.id = Tweet.LOCAL_ID_BASE + offset;
+        tweet.sendState = Tweet.SENDING;
+        return tweet;
+    }
+
+    private static List<Tweet> page(long... offsets) {
+        List<Tweet> page = new ArrayList<>();
+        for (long offset : offsets) {
+            page.add(tweet(offset));
+        }
+        return page;
+    }
+
+    private void assertIds(long... offsets) {
+        long[] actual = new long[store.size()];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = store.get(i).id - BASE_ID;
+        }
+        assertArrayEquals(offsets, actual);
+    }
+
+    // Expected ranges as position, count pairs
+    private static void assertRanges(TimelineStore.MergeResult result, int... ranges) {
+        long[] actual = new long[result.inserted.size() * 2];
+        for (int i = 0; i < result.inserted.size(); i++) {
+            actual[i * 2] = result.inserted.get(i).position;
+            actual[i * 2 + 1] = result.inserted.get(i).count;
+        }
+        long[] expected = new long[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            expected[i] = ranges[i];
+        }
+        assertArrayEquals(expected, actual);
+    }
+}